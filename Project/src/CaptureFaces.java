@@ -3,7 +3,6 @@ import org.opencv.highgui.HighGui;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.videoio.VideoCapture;
 
 import java.io.File;
 import java.util.Scanner;
@@ -35,12 +34,15 @@ public class CaptureFaces {
             return;
         }
 
-        // Open webcam
-        VideoCapture camera = new VideoCapture(0);
-        if (!camera.isOpened()) {
-            System.out.println("❌ Error: Cannot open camera!");
+        // Open webcam (or the recording / image folder given as the first argument)
+        FrameSource camera;
+        try {
+            camera = FrameSource.open(args.length > 0 ? args[0] : "webcam:0");
+        } catch (RuntimeException e) {
+            System.out.println("❌ Error: Cannot open camera! " + e.getMessage());
             return;
         }
+        boolean fast = FrameSource.fastMode();
 
         Mat frame = new Mat();
         int count = 0;
@@ -82,12 +84,16 @@ public class CaptureFaces {
                         new Point(10, 25), Imgproc.FONT_HERSHEY_SIMPLEX, 0.8,
                         new Scalar(0, 255, 255), 2);
 
+                if (fast) continue; // headless replay: no window, no waitKey pacing
+
                 HighGui.imshow("Face Capture", frame);
                 if (HighGui.waitKey(30) == 27) break; // ESC key
+            } else if (camera.isFinished()) {
+                break;
             }
         }
 
-        camera.release();
+        camera.close();
         HighGui.destroyAllWindows();
         System.out.println("✅ Face capture completed for " + personName);
     }
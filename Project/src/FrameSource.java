@@ -0,0 +1,134 @@
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+// Where frames come from: webcam, video file, folder of images or generated noise frames.
+// Same spec strings as attendence_system's FrameSource: webcam:0, video:file.mp4, images:dir, synthetic:640x480[,frames=N]
+public interface FrameSource extends AutoCloseable {
+
+    boolean read(Mat frame);
+
+    boolean isFinished();
+
+    @Override
+    void close();
+
+    // -Dframes.fast=true skips HighGui pacing so recordings run at full speed
+    static boolean fastMode() {
+        return Boolean.getBoolean("frames.fast");
+    }
+
+    static FrameSource open(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = colon > 1 ? spec.substring(0, colon) : "";
+        String value = colon > 1 ? spec.substring(colon + 1) : spec;
+
+        return switch (kind) {
+            case "webcam" -> new Video(new VideoCapture(Integer.parseInt(value)), true);
+            case "video" -> new Video(new VideoCapture(value), false);
+            case "images" -> new Images(new File(value));
+            case "synthetic" -> Synthetic.fromSpec(value);
+            default -> {
+                if (value.matches("\\d+")) yield new Video(new VideoCapture(Integer.parseInt(value)), true);
+                if (new File(value).isDirectory()) yield new Images(new File(value));
+                yield new Video(new VideoCapture(value), false);
+            }
+        };
+    }
+
+    class Video implements FrameSource {
+        private final VideoCapture capture;
+        private final boolean live;
+        private boolean finished;
+
+        Video(VideoCapture capture, boolean live) {
+            if (!capture.isOpened()) throw new IllegalStateException("Cannot open video source");
+            this.capture = capture;
+            this.live = live;
+        }
+
+        public boolean read(Mat frame) {
+            if (finished) return false;
+            if (capture.read(frame) && !frame.empty()) return true;
+            if (!live) finished = true;
+            return false;
+        }
+
+        public boolean isFinished() { return finished; }
+
+        public void close() { capture.release(); }
+    }
+
+    class Images implements FrameSource {
+        private final File[] files;
+        private int next;
+
+        Images(File dir) {
+            File[] found = dir.listFiles((d, name) -> {
+                String lower = name.toLowerCase();
+                return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
+            });
+            if (found == null) throw new IllegalStateException("Not a folder: " + dir);
+            Arrays.sort(found);
+            files = found;
+        }
+
+        public boolean read(Mat frame) {
+            while (next < files.length) {
+                Mat image = Imgcodecs.imread(files[next++].getAbsolutePath());
+                if (!image.empty()) {
+                    image.copyTo(frame);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean isFinished() { return next >= files.length; }
+
+        public void close() { }
+    }
+
+    class Synthetic implements FrameSource {
+        private final Mat[] variants = new Mat[8];
+        private final long limit;
+        private long produced;
+
+        Synthetic(int width, int height, long limit) {
+            this.limit = limit;
+            Random random = new Random(42);
+            byte[] noise = new byte[width * height * 3];
+            for (int i = 0; i < variants.length; i++) {
+                random.nextBytes(noise);
+                variants[i] = new Mat(height, width, CvType.CV_8UC3);
+                variants[i].put(0, 0, noise);
+                Imgproc.GaussianBlur(variants[i], variants[i], new Size(5, 5), 0);
+            }
+        }
+
+        static Synthetic fromSpec(String spec) {
+            String[] parts = spec.split(",");
+            String[] size = parts[0].split("x");
+            long frames = Long.MAX_VALUE;
+            for (int i = 1; i < parts.length; i++) {
+                if (parts[i].startsWith("frames=")) frames = Long.parseLong(parts[i].substring(7));
+            }
+            return new Synthetic(Integer.parseInt(size[0]), Integer.parseInt(size[1]), frames);
+        }
+
+        public boolean read(Mat frame) {
+            if (produced >= limit) return false;
+            variants[(int) (produced++ % variants.length)].copyTo(frame);
+            return true;
+        }
+
+        public boolean isFinished() { return produced >= limit; }
+
+        public void close() { }
+    }
+}
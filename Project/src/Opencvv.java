@@ -2,7 +2,6 @@ import org.opencv.core.*;
 import org.opencv.highgui.HighGui;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.videoio.VideoCapture;
 
 public class Opencvv {
     public static void main(String[] args) {
@@ -18,12 +17,17 @@ public class Opencvv {
             return;
         }
 
-        // Open the default camera (0)
-        VideoCapture camera = new VideoCapture(0);
-        if (!camera.isOpened()) {
-            System.out.println("Error: Cannot open camera!");
+        // Open the default camera (0), or the recording / image folder given as the first argument
+        FrameSource camera;
+        try {
+            camera = FrameSource.open(args.length > 0 ? args[0] : "webcam:0");
+        } catch (RuntimeException e) {
+            System.out.println("Error: Cannot open camera! " + e.getMessage());
             return;
         }
+        boolean fast = FrameSource.fastMode();
+        long frames = 0;
+        long started = System.nanoTime();
 
         Mat frame = new Mat();
 
@@ -54,6 +58,9 @@ public class Opencvv {
                         new Point(10, 25), Imgproc.FONT_HERSHEY_SIMPLEX, 0.8,
                         new Scalar(0, 255, 255), 2);
 
+                frames++;
+                if (fast) continue; // headless replay: no window, no waitKey pacing
+
                 // Display the video feed with rectangles
                 HighGui.imshow("Face Detection", frame);
 
@@ -62,14 +69,19 @@ public class Opencvv {
                     System.out.println("Exiting...");
                     break;
                 }
+            } else if (camera.isFinished()) {
+                break;
             } else {
                 System.out.println("No frame captured!");
                 break;
             }
         }
 
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Processed %d frames in %.1f s (%.1f fps)%n", frames, seconds, frames / seconds);
+
         // Release camera and close all OpenCV windows
-        camera.release();
+        camera.close();
         HighGui.destroyAllWindows();
     }
 }
@@ -11,9 +11,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class TrainModel {
 
@@ -38,39 +42,80 @@ public class TrainModel {
             return;
         }
 
-        // Loop through all subfolders (each person)
+        // List every person's images first, so each one has a fixed slot before decoding starts
+        List<File[]> imagesPerPerson = new ArrayList<>();
+        int total = 0;
         for (File personDir : personDirs) {
             if (personDir.isDirectory()) {
                 String personName = personDir.getName();
                 namesMap.put(currentId, personName);
                 System.out.println(" -> Training on: " + personName + " (Label: " + currentId + ")");
 
-                File[] imageFiles = personDir.listFiles();
-                if (imageFiles == null) continue;
+                // Simple check for image file extensions
+                File[] imageFiles = personDir.listFiles((dir, name) -> {
+                    String fileName = name.toLowerCase();
+                    return fileName.endsWith(".jpg") || fileName.endsWith(".png") || fileName.endsWith(".pgm");
+                });
+                if (imageFiles == null) imageFiles = new File[0];
+                Arrays.sort(imageFiles);
+                imagesPerPerson.add(imageFiles);
+                total += imageFiles.length;
+                currentId++;
+            }
+        }
 
-                // Loop through all images for that person
-                for (File imageFile : imageFiles) {
-                    // Simple check for image file extensions
-                    String fileName = imageFile.getName().toLowerCase();
-                    if (fileName.endsWith(".jpg") || fileName.endsWith(".png") || fileName.endsWith(".pgm")) {
+        // Each 200x200 grayscale sample takes 40000 bytes and training needs all of them at once,
+        // so refuse a dataset over the cap instead of training on part of it
+        long capMb = Long.getLong("train.memoryCapMb", 4096);
+        long neededMb = (long) total * 200 * 200 / (1024 * 1024);
+        if (neededMb > capMb) {
+            System.out.println("❌ Error: " + total + " images need " + neededMb + " MB as 200x200 samples, more than"
+                    + " -Dtrain.memoryCapMb=" + capMb + " allows. Raise the cap to train on all of them.");
+            return;
+        }
 
-                        // Read the image in grayscale
-                        Mat img = Imgcodecs.imread(imageFile.getAbsolutePath(), Imgcodecs.IMREAD_GRAYSCALE);
-                        if (img.empty()) {
-                            System.out.println("⚠️ Warning: Could not read " + imageFile.getAbsolutePath());
-                            continue;
+        // Decode + resize every person folder on its own virtual thread, straight into its slots.
+        // Only as many full-size images as there are cores are decoded at once.
+        Mat[] slots = new Mat[total];
+        int[] slotLabels = new int[total];
+        Semaphore decoding = new Semaphore(Runtime.getRuntime().availableProcessors());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            int first = 0;
+            for (int label = 0; label < imagesPerPerson.size(); label++) {
+                File[] imageFiles = imagesPerPerson.get(label);
+                int offset = first;
+                int personLabel = label;
+                executor.submit(() -> {
+                    Size size = new Size(200, 200);
+                    for (int i = 0; i < imageFiles.length; i++) {
+                        decoding.acquireUninterruptibly();
+                        try {
+                            // Read the image in grayscale
+                            Mat img = Imgcodecs.imread(imageFiles[i].getAbsolutePath(), Imgcodecs.IMREAD_GRAYSCALE);
+                            if (img.empty()) {
+                                System.out.println("⚠️ Warning: Could not read " + imageFiles[i].getAbsolutePath());
+                                continue;
+                            }
+
+                            // Resize the image (must be same size as in recognition)
+                            Mat resizedImg = new Mat();
+                            Imgproc.resize(img, resizedImg, size);
+                            img.release();
+                            slots[offset + i] = resizedImg;
+                            slotLabels[offset + i] = personLabel;
+                        } finally {
+                            decoding.release();
                         }
-
-                        // Resize the image (must be same size as in recognition)
-                        Mat resizedImg = new Mat();
-                        Size size = new Size(200, 200);
-                        Imgproc.resize(img, resizedImg, size);
-
-                        faces.add(resizedImg);
-                        labelsList.add(currentId);
                     }
-                }
-                currentId++;
+                });
+                first += imageFiles.length;
+            }
+        } // close() waits for every folder to finish
+
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                faces.add(slots[i]);
+                labelsList.add(slotLabels[i]);
             }
         }
 
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// The attendance classes live in the default package, which code in a named package cannot import,
+// and JMH refuses to generate benchmarks in the default package. So the benchmarks reach the
+// application through method handles resolved once here.
+final class App {
+
+    static final String CASCADE = System.getProperty("bench.cascade", "../haarcascade_frontalface_alt.xml");
+    static final String FACES = System.getProperty("bench.faces", "../faces");
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private App() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("attendence_system class not on the classpath: " + name, e);
+        }
+    }
+
+    static MethodHandle staticMethod(String owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return LOOKUP.findStatic(type(owner), name, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner + "." + name, e);
+        }
+    }
+
+    static MethodHandle virtualMethod(String owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return LOOKUP.findVirtual(type(owner), name, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner + "." + name, e);
+        }
+    }
+
+    static MethodHandle getter(String owner, String name, Class<?> type) {
+        try {
+            return LOOKUP.findGetter(type(owner), name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner + "." + name, e);
+        }
+    }
+
+    static MethodHandle constructor(String owner, Class<?>... params) {
+        try {
+            return LOOKUP.findConstructor(type(owner), MethodType.methodType(void.class, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("new " + owner, e);
+        }
+    }
+
+    // Renders one frame from FrameSource.open(spec)
+    static Mat frame(String spec) throws Throwable {
+        MethodHandle open = staticMethod("FrameSource", "open", type("FrameSource"), String.class);
+        MethodHandle read = virtualMethod("FrameSource", "read", boolean.class, Mat.class);
+        MethodHandle close = virtualMethod("FrameSource", "close", void.class);
+
+        Object source = open.invoke(spec);
+        try {
+            Mat frame = new Mat();
+            if (!(boolean) read.invoke(source, frame)) {
+                throw new IllegalStateException("No frame from " + spec);
+            }
+            return frame;
+        } finally {
+            close.invoke(source);
+        }
+    }
+}
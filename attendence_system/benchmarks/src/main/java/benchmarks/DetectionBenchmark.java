@@ -0,0 +1,75 @@
+package benchmarks;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.RectVector;
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+// CascadeClassifier.detectMultiScale on synthetic frames, as used by CaptureFaces, RecognizeFace and
+// MarkAttendance. Faces are pasted from the enrolled dataset (bench.faces); without one, faces > 0
+// measures the same as faces = 0.
+//
+// profile is a DetectionProfile: default is what the plain detectMultiScale(gray, rects) call does,
+// python uses recognize_faces.py's scaleFactor 1.3 / minNeighbors 5, fast detects at half resolution.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0", "1", "10", "40"})
+    public int faces;
+
+    @Param({"default", "python", "fast"})
+    public String profile;
+
+    private static final MethodHandle NAMED = App.staticMethod("DetectionProfile", "named",
+            App.type("DetectionProfile"), String.class);
+    private static final MethodHandle DETECT = App.virtualMethod("DetectionProfile", "detect",
+            void.class, CascadeClassifier.class, App.type("FrameScratch"));
+    private static final MethodHandle NEW_SCRATCH = App.constructor("FrameScratch");
+    private static final MethodHandle SCRATCH_GRAY = App.getter("FrameScratch", "gray", Mat.class);
+    private static final MethodHandle SCRATCH_RECTS = App.getter("FrameScratch", "rects", RectVector.class);
+    private static final MethodHandle CLOSE_SCRATCH = App.virtualMethod("FrameScratch", "close", void.class);
+
+    private CascadeClassifier detector;
+    private Object detectionProfile;
+    private Object scratch;
+    private RectVector rects;
+
+    @Setup
+    public void setup() throws Throwable {
+        detector = new CascadeClassifier(App.CASCADE);
+        if (detector.empty()) {
+            throw new IllegalStateException("Haar Cascade not loaded: " + App.CASCADE);
+        }
+
+        Mat frame = App.frame("synthetic:" + resolution + ",frames=1,faces=" + faces + ",dir=" + App.FACES);
+        scratch = NEW_SCRATCH.invoke();
+        opencv_imgproc.cvtColor(frame, (Mat) SCRATCH_GRAY.invoke(scratch), opencv_imgproc.COLOR_BGR2GRAY);
+        frame.close();
+        rects = (RectVector) SCRATCH_RECTS.invoke(scratch);
+        detectionProfile = NAMED.invoke(profile);
+    }
+
+    @Benchmark
+    public long detect() throws Throwable {
+        DETECT.invoke(detectionProfile, detector, scratch);
+        return rects.size();
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        CLOSE_SCRATCH.invoke(scratch);
+        detector.close();
+    }
+}
@@ -0,0 +1,105 @@
+package benchmarks;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.IntBuffer;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+// One identification, face in -> label out, three ways over the same synthetic roster:
+//   lbph       LBPHFaceRecognizer.predict, as RecognizeFace and MarkAttendance call it
+//   exact      LbpIndex without clusters: pure-Java features plus a sparse chi-square scan
+//   clustered  LbpIndex after cluster(): only the closest clusters are scanned
+// extract() times the pure-Java feature extraction on its own.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+public class LbpIndexBenchmark {
+
+    @Param({"500", "5000"})
+    public int identities;
+
+    @Param({"2"})
+    public int samplesPerIdentity;
+
+    @Param({"lbph", "exact", "clustered"})
+    public String mode;
+
+    private static final MethodHandle FROM_MODEL = App.staticMethod("LbpIndex", "fromModel",
+            App.type("LbpIndex"), LBPHFaceRecognizer.class, BitSet.class);
+    private static final MethodHandle CLUSTER = App.virtualMethod("LbpIndex", "cluster", void.class);
+    private static final MethodHandle INDEX_PREDICT = App.virtualMethod("LbpIndex", "predict",
+            void.class, Mat.class, int[].class, double[].class);
+    private static final MethodHandle NEW_FEATURES = App.constructor("LbpFeatures");
+    private static final MethodHandle HISTOGRAM = App.virtualMethod("LbpFeatures", "histogram",
+            void.class, byte[].class, int.class, int.class, float[].class);
+
+    private LBPHFaceRecognizer recognizer;
+    private Object index;
+    private Object features;
+    private Mat query;
+    private byte[] queryPixels;
+    private final float[] histogram = new float[8 * 8 * 256];
+    private final int[] label = new int[1];
+    private final double[] confidence = new double[1];
+
+    @Setup
+    public void setup() throws Throwable {
+        int total = identities * samplesPerIdentity;
+        MatVector images = new MatVector(total);
+        Mat labels = new Mat(total, 1, opencv_core.CV_32SC1);
+        IntBuffer labelsBuf = labels.createBuffer();
+
+        int i = 0;
+        for (int id = 0; id < identities; id++) {
+            Mat identity = SyntheticFaces.identity(id, 200);
+            for (int s = 0; s < samplesPerIdentity; s++) {
+                images.put(i, SyntheticFaces.sample(identity, s));
+                labelsBuf.put(i, id + 1);
+                i++;
+            }
+            if (id == identities / 2) query = SyntheticFaces.sample(identity, samplesPerIdentity);
+            identity.close();
+        }
+
+        recognizer = LBPHFaceRecognizer.create();
+        recognizer.train(images, labels);
+        images.close();
+        labels.close();
+
+        if (!mode.equals("lbph")) {
+            index = FROM_MODEL.invoke(recognizer, (BitSet) null);
+            if (mode.equals("clustered")) CLUSTER.invoke(index);
+        }
+        features = NEW_FEATURES.invoke();
+        queryPixels = new byte[(int) query.total()];
+        query.data().get(queryPixels);
+    }
+
+    @Benchmark
+    public int identify() throws Throwable {
+        if (index != null) INDEX_PREDICT.invoke(index, query, label, confidence);
+        else recognizer.predict(query, label, confidence);
+        return label[0];
+    }
+
+    @Benchmark
+    public float[] extract() throws Throwable {
+        HISTOGRAM.invoke(features, queryPixels, query.rows(), query.cols(), histogram);
+        return histogram;
+    }
+
+    @TearDown
+    public void tearDown() {
+        query.close();
+        recognizer.close();
+    }
+}
@@ -0,0 +1,104 @@
+package benchmarks;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+// Startup cost of getting a trained model ready to predict, for a roster of the given size:
+//   readXml       LBPHFaceRecognizer.read of the XML TrainModel saves
+//   loadSnapshot  ModelSnapshot.load (map + checksum) and toIndex, what attendance does now
+// Each invocation loads from scratch; the files stay in the page cache, so this measures parsing,
+// not the disk.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+public class ModelLoadBenchmark {
+
+    @Param({"500", "2000"})
+    public int identities;
+
+    @Param({"2"})
+    public int samplesPerIdentity;
+
+    private static final MethodHandle SAVE = App.staticMethod("ModelSnapshot", "save",
+            void.class, LBPHFaceRecognizer.class, String.class);
+    private static final MethodHandle LOAD = App.staticMethod("ModelSnapshot", "load",
+            App.type("ModelSnapshot"), String.class);
+    private static final MethodHandle TO_INDEX = App.virtualMethod("ModelSnapshot", "toIndex",
+            App.type("LbpIndex"), BitSet.class);
+    private static final MethodHandle INDEX_SIZE = App.virtualMethod("LbpIndex", "size", int.class);
+
+    private File dir;
+    private String xmlPath;
+    private String snapshotPath;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        int total = identities * samplesPerIdentity;
+        MatVector images = new MatVector(total);
+        Mat labels = new Mat(total, 1, opencv_core.CV_32SC1);
+        IntBuffer labelsBuf = labels.createBuffer();
+
+        int i = 0;
+        for (int id = 0; id < identities; id++) {
+            Mat identity = SyntheticFaces.identity(id, 200);
+            for (int s = 0; s < samplesPerIdentity; s++) {
+                images.put(i, SyntheticFaces.sample(identity, s));
+                labelsBuf.put(i, id + 1);
+                i++;
+            }
+            identity.close();
+        }
+
+        LBPHFaceRecognizer recognizer = LBPHFaceRecognizer.create();
+        recognizer.train(images, labels);
+        images.close();
+        labels.close();
+
+        dir = Files.createTempDirectory("model-load").toFile();
+        xmlPath = new File(dir, "trained_model.xml").getPath();
+        snapshotPath = new File(dir, "trained_model.lbps").getPath();
+        recognizer.save(xmlPath);
+        SAVE.invoke(recognizer, snapshotPath);
+        recognizer.close();
+    }
+
+    @Benchmark
+    public int readXml() {
+        LBPHFaceRecognizer recognizer = LBPHFaceRecognizer.create();
+        try {
+            recognizer.read(xmlPath);
+            try (Mat labels = recognizer.getLabels()) {
+                return labels.rows();
+            }
+        } finally {
+            recognizer.close();
+        }
+    }
+
+    @Benchmark
+    public int loadSnapshot() throws Throwable {
+        Object snapshot = LOAD.invoke(snapshotPath);
+        Object index = TO_INDEX.invoke(snapshot, (BitSet) null);
+        return (int) INDEX_SIZE.invoke(index);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(xmlPath).delete();
+        new File(snapshotPath).delete();
+        dir.delete();
+    }
+}
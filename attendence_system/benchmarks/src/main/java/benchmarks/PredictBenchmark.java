@@ -0,0 +1,84 @@
+package benchmarks;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+
+// LBPHFaceRecognizer.predict as the roster grows. predict compares the query against every training
+// histogram (16384 floats each with the default 8x8 grid), so expect roughly linear growth.
+// shards > 1 runs the same model through ShardedRecognizer, which scans the shards in parallel.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PredictBenchmark {
+
+    @Param({"5", "500", "5000"})
+    public int identities;
+
+    @Param({"1"})
+    public int samplesPerIdentity;
+
+    @Param({"1", "4"})
+    public int shards;
+
+    private static final MethodHandle SPLIT = App.staticMethod("ShardedRecognizer", "split",
+            App.type("ShardedRecognizer"), LBPHFaceRecognizer.class, int.class);
+    private static final MethodHandle SHARDED_PREDICT = App.virtualMethod("ShardedRecognizer", "predict",
+            void.class, Mat.class, int[].class, double[].class);
+    private static final MethodHandle CLOSE = App.virtualMethod("ShardedRecognizer", "close", void.class);
+
+    private LBPHFaceRecognizer recognizer;
+    private Object sharded;
+    private Mat query;
+    private final int[] label = new int[1];
+    private final double[] confidence = new double[1];
+
+    @Setup
+    public void setup() throws Throwable {
+        int total = identities * samplesPerIdentity;
+        MatVector images = new MatVector(total);
+        Mat labels = new Mat(total, 1, opencv_core.CV_32SC1);
+        IntBuffer labelsBuf = labels.createBuffer();
+
+        int i = 0;
+        for (int id = 0; id < identities; id++) {
+            Mat identity = SyntheticFaces.identity(id, 200);
+            for (int s = 0; s < samplesPerIdentity; s++) {
+                images.put(i, SyntheticFaces.sample(identity, s));
+                labelsBuf.put(i, id + 1);
+                i++;
+            }
+            if (id == identities / 2) query = SyntheticFaces.sample(identity, samplesPerIdentity);
+            identity.close();
+        }
+
+        recognizer = LBPHFaceRecognizer.create();
+        recognizer.train(images, labels);
+        images.close();
+        labels.close();
+        if (shards > 1) sharded = SPLIT.invoke(recognizer, shards);
+    }
+
+    @Benchmark
+    public int predict() throws Throwable {
+        if (sharded != null) SHARDED_PREDICT.invoke(sharded, query, label, confidence);
+        else recognizer.predict(query, label, confidence);
+        return label[0];
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        if (sharded != null) CLOSE.invoke(sharded);
+        query.close();
+        recognizer.close();
+    }
+}
@@ -0,0 +1,40 @@
+package benchmarks;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.util.Random;
+
+// Face-sized grayscale images for recognizer benchmarks. Each identity gets its own smooth random
+// texture and every sample of it adds a little noise, so LBPH histograms differ between and within
+// identities the way real enrolments do. Nothing here needs a camera or a real dataset.
+final class SyntheticFaces {
+
+    private SyntheticFaces() {
+    }
+
+    static Mat identity(int id, int side) {
+        Random random = new Random(1000L + id);
+        byte[] pixels = new byte[side * side];
+        random.nextBytes(pixels);
+        Mat face = new Mat(side, side, opencv_core.CV_8UC1);
+        face.data().put(pixels);
+        opencv_imgproc.GaussianBlur(face, face, new Size(9, 9), 0);
+        return face;
+    }
+
+    static Mat sample(Mat identity, int sample) {
+        Random random = new Random(sample * 7919L);
+        byte[] pixels = new byte[(int) identity.total()];
+        identity.data().get(pixels);
+        for (int i = 0; i < pixels.length; i++) {
+            int v = (pixels[i] & 0xff) + random.nextInt(17) - 8;
+            pixels[i] = (byte) Math.max(0, Math.min(255, v));
+        }
+        Mat out = new Mat(identity.rows(), identity.cols(), opencv_core.CV_8UC1);
+        out.data().put(pixels);
+        return out;
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// TrainModel's load + train path (imread, resize, LBPH train) over a synthetic faces/ tree on disk.
+// Images are written at 240x240 so the resize to 200x200 is part of what gets measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TrainBenchmark {
+
+    private static final MethodHandle TRAIN = App.staticMethod("TrainModel", "train",
+            org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer.class, String.class);
+
+    @Param({"5", "50"})
+    public int people;
+
+    @Param({"20", "70"})
+    public int imagesPerPerson;
+
+    private Path dataset;
+
+    @Setup(Level.Trial)
+    public void writeDataset() throws IOException {
+        dataset = Files.createTempDirectory("bench-faces");
+        for (int p = 0; p < people; p++) {
+            Path dir = Files.createDirectory(dataset.resolve("person" + p));
+            Mat identity = SyntheticFaces.identity(p, 240);
+            for (int i = 0; i < imagesPerPerson; i++) {
+                Mat sample = SyntheticFaces.sample(identity, i);
+                opencv_imgcodecs.imwrite(dir.resolve((i + 1) + ".jpg").toString(), sample);
+                sample.close();
+            }
+            identity.close();
+        }
+    }
+
+    @Benchmark
+    public Object loadAndTrain() throws Throwable {
+        return TRAIN.invoke(dataset.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDataset() throws IOException {
+        try (Stream<Path> files = Files.walk(dataset)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
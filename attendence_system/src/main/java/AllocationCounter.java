@@ -0,0 +1,80 @@
+import com.sun.management.ThreadMXBean;
+import org.bytedeco.javacpp.Pointer;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts what worker threads allocate per frame, to check that the per-frame hot path stays
+// allocation-free. Wrap the work with
+//     long mark = counter.begin();  ...  counter.end(mark);
+// Java heap bytes come from the JVM's per-thread allocation counter; every JavaCPP native object also
+// allocates its Java wrapper, so native churn shows up there too. The first `warmup` frames are
+// ignored while reusable buffers grow to the frame size.
+//
+// A few objects per face cannot be avoided: the wrapper RectVector.get returns for a detected rect,
+// and the Recognition handed to the consumer. Measure those sections with threadBytes() and pass
+// them to end(mark, perFaceBytes); they are reported apart, so the per-frame figure of the stages
+// themselves can be checked to stay at zero.
+public class AllocationCounter {
+
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final long warmup;
+    private final LongAdder seen = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder heapBytes = new LongAdder();
+    private final LongAdder perFaceBytes = new LongAdder();
+    private final long livePointersAtStart = Pointer.totalCount();
+
+    public AllocationCounter(long warmup) {
+        this.warmup = warmup;
+    }
+
+    // Heap bytes the calling thread has allocated so far; the difference of two calls measures a section
+    public static long threadBytes() {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    public long begin() {
+        return threadBytes();
+    }
+
+    public void end(long mark) {
+        end(mark, 0);
+    }
+
+    // perFaceBytes: how much of the window went to the unavoidable per-face objects
+    public void end(long mark, long perFaceBytes) {
+        long allocated = threadBytes() - mark;
+        seen.increment();
+        if (seen.sum() <= warmup) return;
+        frames.increment();
+        heapBytes.add(allocated - perFaceBytes);
+        this.perFaceBytes.add(perFaceBytes);
+    }
+
+    public long frames() {
+        return frames.sum();
+    }
+
+    public double heapBytesPerFrame() {
+        long n = frames.sum();
+        return n == 0 ? 0 : heapBytes.sum() / (double) n;
+    }
+
+    public double perFaceBytesPerFrame() {
+        long n = frames.sum();
+        return n == 0 ? 0 : perFaceBytes.sum() / (double) n;
+    }
+
+    // Native objects still registered with JavaCPP compared to when the counter was created
+    public long livePointerGrowth() {
+        return Pointer.totalCount() - livePointersAtStart;
+    }
+
+    public String summary() {
+        return String.format("%d frames measured, %.1f heap bytes/frame, %+d live native objects"
+                        + "%n   per-face objects (rect wrappers, results): %.1f heap bytes/frame",
+                frames(), heapBytesPerFrame(), livePointerGrowth(), perFaceBytesPerFrame());
+    }
+}
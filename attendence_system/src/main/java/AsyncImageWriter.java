@@ -0,0 +1,122 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Encodes and writes images on background threads so the capture loop never waits for JPEG
+// encoding or the disk. The queue is bounded: when the writers fall behind, write() blocks
+// instead of piling up image copies in memory.
+public class AsyncImageWriter implements AutoCloseable {
+
+    private record Job(Mat image, File file) {}
+
+    private final BlockingQueue<Job> queue;
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<File> written = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger pending = new AtomicInteger(); // queued or being written
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public AsyncImageWriter(int threadCount, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        for (int i = 0; i < Math.max(1, threadCount); i++) {
+            Thread t = new Thread(this::writeLoop, "image-writer-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    // Queues a copy of the image; the caller may reuse or release its Mat right away
+    public void write(Mat image, File file) {
+        if (!running) throw new IllegalStateException("AsyncImageWriter is closed");
+        pending.incrementAndGet();
+        Mat copy = image.clone();
+        try {
+            queue.put(new Job(copy, file));
+        } catch (InterruptedException e) {
+            copy.close();
+            pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int queued() {
+        return pending.get();
+    }
+
+    public int failed() {
+        return failed.get();
+    }
+
+    // Files written so far, in the order they were finished
+    public List<File> written() {
+        synchronized (written) {
+            return new ArrayList<>(written);
+        }
+    }
+
+    private void writeLoop() {
+        while (running || !queue.isEmpty()) {
+            Job job;
+            try {
+                job = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue; // close() interrupts once the queue is drained or the timeout passed
+            }
+            if (job == null) continue;
+
+            try {
+                if (opencv_imgcodecs.imwrite(job.file().getPath(), job.image())) {
+                    written.add(job.file());
+                } else {
+                    failed.incrementAndGet();
+                    System.err.println(" Failed to save: " + job.file());
+                }
+            } finally {
+                job.image().close();
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    // Stops accepting images and waits up to timeoutMs for the queued ones to be written.
+    // Returns how many were still waiting (and are lost).
+    public int close(long timeoutMs) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        Job job;
+        while ((job = queue.poll()) != null) job.image().close();
+        for (Thread t : threads) t.interrupt();
+        for (Thread t : threads) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        close(10_000);
+    }
+}
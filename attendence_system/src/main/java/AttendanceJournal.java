@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+// Append-only file of attendance marks, so a mark is safe on local disk before the database has seen
+// it. append() only copies the mark into a memory buffer; a background thread writes the buffer out
+// and fsyncs every -Ddb.journalSyncMs (or as soon as the buffer is full), so one fsync covers every
+// mark of that interval. AttendanceWriter reads the marks back in order and acknowledges them once
+// they are committed to attendance_log; the acknowledged position is kept in the file header, so
+// marks not yet in the database when the program stops are written by the next run.
+//
+//   int magic 'ATTJ', int version, long synced (offset of the first mark not yet in the database)
+//   marks of 24 bytes { int studentId, int courseId, long epochMillis, int crc32c, int reserved }
+//
+// A mark cut short by a crash fails its checksum and is cut off when the file is opened. Once every
+// mark is in the database the file is truncated back to its header. Only one process can have the
+// file open. append() is thread-safe and allocates nothing; read() and acknowledge() belong to the
+// one thread that writes to the database.
+public class AttendanceJournal implements AutoCloseable {
+
+    public static final String DEFAULT_PATH = "attendance.journal";
+
+    private static final int MAGIC = 0x4154544A; // "ATTJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int SYNCED_OFFSET = 8;
+    private static final int RECORD_BYTES = 24;
+    private static final int CHECKED_BYTES = 16;
+    private static final int BUFFER_RECORDS = 1024;
+
+    // One mark read back from the journal
+    public interface Visitor {
+        void mark(int studentId, int courseId, long epochMillis);
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private final long syncIntervalMs;
+    private final Thread syncer;
+    private volatile boolean running = true;
+
+    // Appenders fill `buffer`; the sync thread swaps it for `spare` and writes it out as `writing`.
+    // Buffers and offsets are guarded by `lock`; file writes and truncation by `fileWrite`.
+    private final Object lock = new Object();
+    private final Object fileWrite = new Object();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES);
+    private ByteBuffer writing;
+    private long durableEnd;
+    private long syncedEnd;
+    private boolean closed;
+    private final CRC32C crc = new CRC32C();
+    private final byte[] record = new byte[CHECKED_BYTES];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+
+    // Used by the reading thread only
+    private ByteBuffer readBuffer = ByteBuffer.allocate(0);
+    private final CRC32C readCrc = new CRC32C();
+    private final ByteBuffer offsetBuffer = ByteBuffer.allocate(8);
+
+    private final AtomicLong appended = new AtomicLong();
+    private final Histogram fsyncTime = Histogram.latency();
+
+    private AttendanceJournal(Path path, FileChannel channel, FileLock fileLock, long syncIntervalMs) {
+        this.path = path;
+        this.channel = channel;
+        this.fileLock = fileLock;
+        this.syncIntervalMs = Math.max(1, syncIntervalMs);
+        this.syncer = new Thread(this::syncLoop, "attendance-journal");
+        this.syncer.setDaemon(true);
+    }
+
+    // Opens (or creates) the journal, cutting off a torn last mark, and starts the sync thread
+    public static AttendanceJournal open(Path path, long syncIntervalMs) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            channel.close();
+            throw new IOException(path + " is in use by another process");
+        }
+
+        AttendanceJournal journal = new AttendanceJournal(path, channel, fileLock, syncIntervalMs);
+        try {
+            journal.recover();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        journal.syncer.start();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        long length = channel.size();
+        if (length == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(HEADER_BYTES).flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.force(true);
+            durableEnd = syncedEnd = HEADER_BYTES;
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) { }
+        if (header.position() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not an attendance journal");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException(path + " has unsupported attendance journal version " + header.getInt(4));
+        }
+        long synced = header.getLong(SYNCED_OFFSET);
+        if (synced < HEADER_BYTES || synced > length || (synced - HEADER_BYTES) % RECORD_BYTES != 0) {
+            synced = HEADER_BYTES; // replaying marks that are already in the database is harmless
+        }
+
+        // Keep every whole mark with a good checksum after the synced position
+        long end = synced;
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_BYTES);
+        CRC32C check = new CRC32C();
+        scan:
+        while (end < length) {
+            buf.clear();
+            int n = channel.read(buf, end);
+            if (n < RECORD_BYTES) break;
+            for (int at = 0; at + RECORD_BYTES <= n; at += RECORD_BYTES) {
+                check.reset();
+                check.update(buf.array(), at, CHECKED_BYTES);
+                if ((int) check.getValue() != buf.getInt(at + CHECKED_BYTES)) break scan;
+                end += RECORD_BYTES;
+            }
+        }
+        if (end < length) {
+            System.err.println(" Attendance journal " + path + ": dropped " + (length - end) + " bytes of a torn mark");
+            channel.truncate(end);
+            channel.force(true);
+        }
+        durableEnd = end;
+        syncedEnd = synced;
+    }
+
+    // Adds a mark. Returns at once unless a full buffer's worth of marks is waiting for the disk.
+    public void append(int studentId, int courseId, long epochMillis) {
+        boolean interrupted = false;
+        synchronized (lock) {
+            while (true) {
+                if (closed) throw new IllegalStateException("AttendanceJournal is closed");
+                if (buffer.remaining() >= RECORD_BYTES) break;
+                lock.notifyAll(); // wake the sync thread
+                try {
+                    lock.wait(syncIntervalMs);
+                } catch (InterruptedException e) {
+                    interrupted = true; // a mark must not be dropped because the caller was interrupted
+                }
+            }
+            recordBuffer.clear();
+            recordBuffer.putInt(studentId).putInt(courseId).putLong(epochMillis);
+            crc.reset();
+            crc.update(record, 0, CHECKED_BYTES);
+            buffer.put(record).putInt((int) crc.getValue()).putInt(0);
+        }
+        appended.incrementAndGet();
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void syncLoop() {
+        while (running) {
+            synchronized (lock) {
+                try {
+                    lock.wait(syncIntervalMs);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                System.err.println(" Could not write attendance journal " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes and fsyncs whatever has been appended. A failed write is retried by the next flush.
+    private void flush() throws IOException {
+        synchronized (fileWrite) {
+            long at;
+            synchronized (lock) {
+                if (writing == null) {
+                    if (buffer.position() == 0) return;
+                    writing = buffer;
+                    buffer = spare;
+                    spare = null;
+                    writing.flip();
+                }
+                at = durableEnd;
+            }
+
+            long start = System.nanoTime();
+            writing.rewind();
+            while (writing.hasRemaining()) at += channel.write(writing, at);
+            channel.force(false);
+            fsyncTime.recordSince(start);
+
+            synchronized (lock) {
+                durableEnd = at;
+                writing.clear();
+                spare = writing;
+                writing = null;
+                lock.notifyAll(); // appenders waiting for room
+            }
+        }
+    }
+
+    // Visits up to max marks that are on disk but not yet acknowledged, oldest first, and returns
+    // how many. The same marks are visited again until they are acknowledged.
+    public int read(int max, Visitor visitor) throws IOException {
+        long from;
+        long to;
+        synchronized (lock) {
+            from = syncedEnd;
+            to = Math.min(durableEnd, syncedEnd + (long) max * RECORD_BYTES);
+        }
+        int bytes = (int) (to - from);
+        if (bytes <= 0) return 0;
+        if (readBuffer.capacity() < bytes) readBuffer = ByteBuffer.allocate(bytes);
+        readBuffer.clear().limit(bytes);
+        while (readBuffer.hasRemaining()) {
+            if (channel.read(readBuffer, from + readBuffer.position()) < 0) {
+                throw new IOException(path + " ended early");
+            }
+        }
+
+        int count = bytes / RECORD_BYTES;
+        for (int i = 0, at = 0; i < count; i++, at += RECORD_BYTES) {
+            readCrc.reset();
+            readCrc.update(readBuffer.array(), at, CHECKED_BYTES);
+            if ((int) readCrc.getValue() != readBuffer.getInt(at + CHECKED_BYTES)) {
+                throw new IOException(path + " has a damaged mark at offset " + (from + at));
+            }
+            visitor.mark(readBuffer.getInt(at), readBuffer.getInt(at + 4), readBuffer.getLong(at + 8));
+        }
+        return count;
+    }
+
+    // Records that the next `count` marks are in the database. When that leaves nothing pending the
+    // file is emptied.
+    public void acknowledge(int count) throws IOException {
+        synchronized (fileWrite) {
+            long synced;
+            boolean empty;
+            synchronized (lock) {
+                syncedEnd = Math.min(durableEnd, syncedEnd + (long) count * RECORD_BYTES);
+                empty = syncedEnd == durableEnd && buffer.position() == 0 && writing == null;
+                if (empty) durableEnd = syncedEnd = HEADER_BYTES;
+                synced = syncedEnd;
+            }
+            // The header goes first: if the truncate is lost, the marks it leaves are just written again
+            offsetBuffer.clear();
+            offsetBuffer.putLong(synced).flip();
+            while (offsetBuffer.hasRemaining()) channel.write(offsetBuffer, SYNCED_OFFSET + offsetBuffer.position());
+            channel.force(false);
+            if (empty) channel.truncate(HEADER_BYTES);
+        }
+    }
+
+    // Marks appended but not yet acknowledged, including those still in memory
+    public int pending() {
+        synchronized (lock) {
+            long bytes = durableEnd - syncedEnd + buffer.position() + (writing != null ? writing.limit() : 0);
+            return (int) (bytes / RECORD_BYTES);
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    // fsync latency, marks appended and marks not yet in the database
+    public void registerWith(Metrics metrics) {
+        metrics.histogram("journalFsync", fsyncTime);
+        metrics.counter("journal.appended", appended::get);
+        metrics.gauge("journal.pending", this::pending);
+    }
+
+    // Writes out what is left and closes the file; marks not yet acknowledged stay for the next run
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            syncer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println(" Could not write attendance journal " + path + ": " + e.getMessage());
+        }
+        try {
+            fileLock.release();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(" Could not close attendance journal " + path + ": " + e.getMessage());
+        }
+    }
+}
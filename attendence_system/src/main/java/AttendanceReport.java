@@ -0,0 +1,106 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes attendance_report_course_<id>.csv for one or more courses from a single query.
+// Every student gets a row per course: P with the first mark's time, or A.
+//
+// Usage: AttendanceReport <course_id>[,<course_id>...] [<from yyyy-mm-dd> <to yyyy-mm-dd>]
+public class AttendanceReport {
+
+    private static final String HEADER = "Student Name,Attendance,Date & Time\n";
+
+    public static void main(String[] args) {
+        if (args.length != 1 && args.length != 3) {
+            System.out.println("Usage: AttendanceReport <course_id>[,<course_id>...] [<from yyyy-mm-dd> <to yyyy-mm-dd>]");
+            return;
+        }
+
+        List<Integer> courseIds = new ArrayList<>();
+        for (String id : args[0].split(",")) courseIds.add(Integer.parseInt(id.trim()));
+        LocalDate from = args.length == 3 ? LocalDate.parse(args[1]) : null;
+        LocalDate to = args.length == 3 ? LocalDate.parse(args[2]) : null;
+
+        try (PooledConnection conn = ConnectionPool.shared().borrow()) {
+            for (String file : write(conn, courseIds, from, to)) {
+                System.out.println(" CSV generated: " + file);
+            }
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static String write(PooledConnection conn, int courseId) throws SQLException, IOException {
+        return write(conn, Collections.singletonList(courseId), null, null).get(0);
+    }
+
+    // Writes one CSV per course and returns the file names. from/to (inclusive) are optional and
+    // only count attendance marked on those days; the file name then carries the range.
+    public static List<String> write(PooledConnection conn, List<Integer> courseIds, LocalDate from, LocalDate to)
+            throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT c.course_id, s.name, MIN(a.timestamp) AS first_seen "
+                        + "FROM courses c CROSS JOIN students s "
+                        + "LEFT JOIN attendance_log a ON a.student_id = s.student_id AND a.course_id = c.course_id");
+        if (from != null) sql.append(" AND a.timestamp >= ?");
+        if (to != null) sql.append(" AND a.timestamp < ?");
+        sql.append(" WHERE c.course_id IN (");
+        for (int i = 0; i < courseIds.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(") GROUP BY c.course_id, s.student_id, s.name ORDER BY c.course_id, s.student_id");
+
+        Map<Integer, Writer> writers = new LinkedHashMap<>();
+        List<String> files = new ArrayList<>();
+        try {
+            for (int courseId : courseIds) {
+                String file = fileName(courseId, from, to);
+                Writer out = new BufferedWriter(new FileWriter(file), 1 << 16);
+                writers.put(courseId, out);
+                files.add(file);
+                out.write(HEADER);
+            }
+
+            PreparedStatement ps = conn.prepare(sql.toString());
+            int p = 1;
+            if (from != null) ps.setTimestamp(p++, Timestamp.valueOf(from.atStartOfDay()));
+            if (to != null) ps.setTimestamp(p++, Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+            for (int courseId : courseIds) ps.setInt(p++, courseId);
+
+            // MySQL Connector/J only streams rows with this special fetch size; other drivers take a page size
+            boolean mysql = "MySQL".equals(conn.connection().getMetaData().getDatabaseProductName());
+            ps.setFetchSize(mysql ? Integer.MIN_VALUE : Integer.getInteger("report.fetchSize", 1000));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Writer out = writers.get(rs.getInt(1));
+                    String name = rs.getString(2);
+                    Timestamp ts = rs.getTimestamp(3);
+                    out.append(name);
+                    if (ts != null) out.append(",P,").append(ts.toString()).append('\n');
+                    else out.append(",A,\n");
+                }
+            }
+        } finally {
+            for (Writer out : writers.values()) out.close();
+        }
+        return files;
+    }
+
+    private static String fileName(int courseId, LocalDate from, LocalDate to) {
+        String name = "attendance_report_course_" + courseId;
+        if (from != null || to != null) {
+            name += "_" + (from != null ? from : "start") + "_" + (to != null ? to : "now");
+        }
+        return name + ".csv";
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs the attendance sessions of a timetable on one host, back to back and overlapping:
+//
+//   java AttendanceScheduler timetable.txt
+//
+// One "<courseId> <start> <duration> <source>" per line, # comments:
+//   start     HH:mm[:ss] today, yyyy-MM-ddTHH:mm[:ss], or +<duration> after the scheduler started
+//   duration  seconds, or a number with s, m or h (50m)
+//   source    the rest of the line, any FrameSource spec (webcam:0, video:room2.mp4, ...)
+// e.g.  5 09:00 50m webcam:0
+//       7 09:30 1h video:recordings/room2.mp4
+//
+// Every session waits for its start on a thread of its own (a virtual thread on Java 21 and later)
+// and runs a FramePipeline on its source until its end, or until a recording runs out. Everything
+// that can be shared is loaded once: the model with every student (CourseRecognizer.openAll), the
+// label registry, one AttendanceSession per course, the attendance writer, and a DetectorPool of
+// -Dscheduler.detectBudget cascades (default: one per core), which caps how many frames are searched
+// at once across all rooms. When a session ends, its course report is written on a background
+// thread once its marks are in the database. Sessions whose end has passed are skipped; Ctrl+C ends
+// the running ones.
+//   -Dscheduler.dir=D:/finall/attendence_system/   model, labels and cascade
+// The -Ddetect.*, -Drecognizer.*, -Dtracker.*, -Dgate.*, -Dpipeline.*, -Ddb.* and -Dmetrics.*
+// settings of MarkAttendance apply to every session.
+public class AttendanceScheduler {
+
+    private static final int HITS_REQUIRED = 3;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    // One line of the timetable
+    record Entry(int courseId, LocalDateTime start, Duration duration, String source) {
+        LocalDateTime end() {
+            return start.plus(duration);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final LabelRegistry labels;
+    private final CourseRecognizer recognizer;
+    private final DetectorPool detectors;
+    private final DetectionProfile profile;
+    private final AttendanceWriter writer;
+    private final ExecutorService reports;
+    private final Map<Integer, AttendanceSession> sessions = new HashMap<>(); // guarded by itself
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong marks = new AtomicLong();
+    private volatile boolean stopping;
+
+    private AttendanceScheduler(ConnectionPool pool, LabelRegistry labels, CourseRecognizer recognizer,
+                                DetectorPool detectors, DetectionProfile profile, AttendanceWriter writer) {
+        this.pool = pool;
+        this.labels = labels;
+        this.recognizer = recognizer;
+        this.detectors = detectors;
+        this.profile = profile;
+        this.writer = writer;
+        this.reports = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "report-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: AttendanceScheduler <timetable>   (lines of \"<courseId> <start> <duration> <source>\")");
+            return;
+        }
+        List<Entry> timetable;
+        try {
+            timetable = parse(Files.readAllLines(Path.of(args[0])), LocalDateTime.now());
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(" Cannot read timetable " + args[0] + ": " + e.getMessage());
+            return;
+        }
+        if (timetable.isEmpty()) {
+            System.out.println(" The timetable is empty.");
+            return;
+        }
+
+        String dir = System.getProperty("scheduler.dir", "D:/finall/attendence_system/");
+        String modelPath = new File(dir, "trained_model.xml").getPath();
+        String cascadePath = new File(dir, "haarcascade_frontalface_alt.xml").getPath();
+        String labelsPath = new File(dir, TrainModel.LABELS_PATH).getPath();
+        if (!new File(labelsPath).exists()) {
+            System.out.println(" Label registry not found: " + labelsPath + " (run TrainModel first)");
+            return;
+        }
+        LabelRegistry labels = LabelRegistry.loadOrEmpty(labelsPath);
+
+        //  Loaded once for every session
+        CourseRecognizer recognizer = CourseRecognizer.openAll(modelPath);
+        System.out.println(" Recognizer: " + recognizer.describe());
+        DetectorPool detectors;
+        try {
+            detectors = new DetectorPool(cascadePath,
+                    Integer.getInteger("scheduler.detectBudget", Runtime.getRuntime().availableProcessors()));
+        } catch (IllegalArgumentException e) {
+            System.out.println(" " + e.getMessage());
+            recognizer.close();
+            return;
+        }
+        DetectionProfile profile = DetectionProfile.fromSystemProperties();
+        System.out.println(" Detection: " + profile.describe() + ", at most " + detectors.size() + " frame(s) at once");
+
+        ConnectionPool pool = ConnectionPool.shared();
+        AttendanceWriter writer = AttendanceWriter.fromSystemProperties(pool);
+        AttendanceScheduler scheduler = new AttendanceScheduler(pool, labels, recognizer, detectors, profile, writer);
+
+        Metrics metrics = Metrics.fromSystemProperties("AttendanceScheduler");
+        detectors.registerWith(metrics);
+        writer.registerWith(metrics);
+        metrics.gauge("scheduler.running", scheduler.running::get);
+        metrics.counter("scheduler.marked", scheduler.marks::get);
+
+        // Ctrl+C ends the running sessions but lets their marks and reports through first
+        CountDownLatch finished = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scheduler.stopping = true;
+            try {
+                finished.await(Long.getLong("db.flushTimeoutMs", 10_000) * 2 + 5_000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }, "scheduler-shutdown"));
+
+        scheduler.run(timetable);
+
+        //  Reports wait for their marks, so the writer closes after them
+        scheduler.reports.shutdown();
+        try {
+            scheduler.reports.awaitTermination(Long.getLong("db.flushTimeoutMs", 10_000) + 5_000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close(Long.getLong("db.flushTimeoutMs", 10_000));
+        metrics.close();
+        System.out.println(" Marked " + scheduler.marks.get() + " student(s) in " + timetable.size() + " session(s)");
+        System.out.println(" Metrics: " + metrics.toJson());
+
+        detectors.close();
+        recognizer.close();
+        pool.close();
+        finished.countDown();
+        System.out.println("⏹ Attendance scheduler stopped.");
+    }
+
+    // Starts a thread per session and waits for all of them
+    private void run(List<Entry> timetable) {
+        ThreadFactory threads = sessionThreads();
+        List<Thread> started = new ArrayList<>();
+        for (Entry entry : timetable) {
+            System.out.println(" Course " + entry.courseId() + ": " + entry.start().format(TIME) + " - "
+                    + entry.end().format(TIME) + " on " + entry.source());
+            Thread t = threads.newThread(() -> runSession(entry));
+            t.start();
+            started.add(t);
+        }
+        for (Thread t : started) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                stopping = true;
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runSession(Entry entry) {
+        try {
+            while (!stopping) {
+                long wait = Duration.between(LocalDateTime.now(), entry.start()).toMillis();
+                if (wait <= 0) break;
+                Thread.sleep(Math.min(wait, 1000));
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+        long remainingMs = Duration.between(LocalDateTime.now(), entry.end()).toMillis();
+        if (stopping) return;
+        if (remainingMs <= 0) {
+            System.out.println(" Course " + entry.courseId() + " on " + entry.source() + " skipped: it ended at "
+                    + entry.end().format(TIME));
+            return;
+        }
+
+        String courseName;
+        AttendanceSession session;
+        try (PooledConnection conn = pool.borrow()) {
+            courseName = AttendanceServer.courseName(conn, entry.courseId());
+            if (courseName == null) {
+                System.out.println(" Invalid course ID: " + entry.courseId());
+                return;
+            }
+            session = session(conn, entry.courseId());
+        } catch (SQLException e) {
+            System.out.println(" Cannot start course " + entry.courseId() + ": " + e.getMessage());
+            return;
+        }
+
+        FrameSource source;
+        try {
+            source = FrameSource.open(entry.source());
+        } catch (RuntimeException e) {
+            System.out.println(" Cannot open " + entry.source() + " for " + courseName + ": " + e.getMessage());
+            return;
+        }
+        int fullEvery = Integer.getInteger("tracker.fullEvery", 0);
+        FaceTracker tracker = fullEvery > 0 ? new FaceTracker(fullEvery, HITS_REQUIRED, 80) : null;
+        FramePipeline pipeline = new FramePipeline(source, detectors, profile, recognizer, tracker,
+                FrameGate.fromSystemProperties(),
+                Integer.getInteger("pipeline.detectors", 1),
+                Integer.getInteger("pipeline.recognizers", 1),
+                Integer.getInteger("pipeline.frameQueue", 4),
+                Integer.getInteger("pipeline.faceQueue", 8),
+                Integer.getInteger("pipeline.resultQueue", 256));
+
+        running.incrementAndGet();
+        System.out.println("▶ " + courseName + " started on " + entry.source() + " until " + entry.end().format(TIME));
+        long end = System.currentTimeMillis() + remainingMs;
+        int marked = 0;
+        pipeline.start();
+        try {
+            while (!stopping && System.currentTimeMillis() < end && !pipeline.isDone()) {
+                FramePipeline.Recognition result = pipeline.poll(100, TimeUnit.MILLISECONDS);
+                if (result == null || result.confidence() >= 80) continue;
+
+                if (session.recordHit(result.label()) == session.hitsRequired()) {
+                    // Sessions of the same course share the session, so a student is marked once
+                    int studentId = session.markIfAbsent(result.label());
+                    if (studentId >= 0) {
+                        writer.mark(studentId, entry.courseId());
+                        marked++;
+                        marks.incrementAndGet();
+                        System.out.println(" Recognized: " + session.name(result.label()) + " in " + courseName
+                                + " (attendance marked)");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pipeline.stop();
+            source.close();
+            running.decrementAndGet();
+        }
+        System.out.println("⏹ " + courseName + " on " + entry.source() + " ended: marked " + marked
+                + ", frames " + pipeline.grabbedFrames()
+                + (pipeline.gate() != null ? " (searched " + pipeline.gate().passed() + ")" : ""));
+
+        int courseId = entry.courseId();
+        reports.execute(() -> writeReport(courseId, courseName));
+    }
+
+    // The course's session, loaded by whichever of its sessions starts first
+    private AttendanceSession session(PooledConnection conn, int courseId) throws SQLException {
+        synchronized (sessions) {
+            AttendanceSession session = sessions.get(courseId);
+            if (session == null) {
+                session = AttendanceSession.load(conn, courseId, labels, HITS_REQUIRED);
+                sessions.put(courseId, session);
+            }
+            return session;
+        }
+    }
+
+    // Waits for the marks queued so far to reach the database, then writes the course's CSV
+    private void writeReport(int courseId, String courseName) {
+        if (!writer.awaitWritten(Long.getLong("db.flushTimeoutMs", 10_000))) {
+            System.err.println(" Not every mark has reached the database yet; the " + courseName + " report may miss some");
+        }
+        try (PooledConnection conn = pool.borrow()) {
+            System.out.println(" CSV generated: " + AttendanceReport.write(conn, courseId));
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Virtual threads when the JVM has them (Java 21+). The code is built for Java 17, so they are
+    // looked up by reflection; otherwise daemon platform threads.
+    static ThreadFactory sessionThreads() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "session-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger number = new AtomicInteger();
+            return r -> {
+                Thread t = new Thread(r, "session-" + number.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    // The timetable sorted by start; throws IllegalArgumentException naming the bad line
+    static List<Entry> parse(List<String> lines, LocalDateTime now) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\\s+", 4);
+            if (fields.length < 4) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": expected <courseId> <start> <duration> <source>");
+            }
+            try {
+                LocalDateTime start = fields[1].startsWith("+") ? now.plus(duration(fields[1].substring(1)))
+                        : fields[1].contains("T") ? LocalDateTime.parse(fields[1])
+                        : now.toLocalDate().atTime(LocalTime.parse(fields[1]));
+                entries.add(new Entry(Integer.parseInt(fields[0]), start, duration(fields[2]), fields[3]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        entries.sort(Comparator.comparing(Entry::start));
+        return entries;
+    }
+
+    // "90", "90s", "50m" or "2h"
+    private static Duration duration(String text) {
+        char unit = text.charAt(text.length() - 1);
+        String number = Character.isDigit(unit) ? text : text.substring(0, text.length() - 1);
+        long value = Long.parseLong(number);
+        return switch (unit) {
+            case 'h' -> Duration.ofHours(value);
+            case 'm' -> Duration.ofMinutes(value);
+            case 's' -> Duration.ofSeconds(value);
+            default -> {
+                if (!Character.isDigit(unit)) throw new IllegalArgumentException("bad duration " + text);
+                yield Duration.ofSeconds(value);
+            }
+        };
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Attendance for a room with several cameras, as a long-running service:
+//
+//   java AttendanceServer <courseId> <source> [<source> ...]
+//
+// Every source (webcam:0, video:front.mp4, images:frames/, synthetic:...) gets its own FramePipeline
+// with its own grab/detect/recognize threads, and its own FaceTracker with -Dtracker.fullEvery. The
+// model, label registry and attendance session are loaded once and shared by all cameras, so a
+// student seen by two cameras counts towards the same hits and is marked once.
+//
+// Runs until Ctrl+C, until -Dserver.durationSec has passed (0 = no limit), or until every source
+// is a recording that has been played to the end.
+//   -Dserver.dir=D:/finall/attendence_system/   model, labels and cascade
+//   -Dserver.statusEverySec=30                   progress line (0 = off)
+// The -Ddetect.*, -Drecognizer.*, -Dtracker.* and -Dpipeline.* settings of MarkAttendance apply to
+// every camera; by default each camera gets an equal share of the cores for its detectors. A camera
+// with a tracker runs a single detector instead.
+public class AttendanceServer {
+
+    private static final int HITS_REQUIRED = 3;
+
+    // One source and everything that runs for it
+    private static final class Camera {
+        final String name;
+        final FrameSource source;
+        final FaceTracker tracker;
+        final FramePipeline pipeline;
+        final AtomicLong recognitions = new AtomicLong();
+        final AtomicLong marks = new AtomicLong();
+        Thread consumer;
+
+        Camera(String name, FrameSource source, FaceTracker tracker, FramePipeline pipeline) {
+            this.name = name;
+            this.source = source;
+            this.tracker = tracker;
+            this.pipeline = pipeline;
+        }
+    }
+
+    private final int courseId;
+    private final AttendanceSession session;
+    private final AttendanceWriter writer;
+    private final List<Camera> cameras = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private AttendanceServer(int courseId, AttendanceSession session, AttendanceWriter writer) {
+        this.courseId = courseId;
+        this.session = session;
+        this.writer = writer;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: AttendanceServer <courseId> <source> [<source> ...]");
+            return;
+        }
+        int courseId = Integer.parseInt(args[0]);
+        String dir = System.getProperty("server.dir", "D:/finall/attendence_system/");
+        String modelPath = new File(dir, "trained_model.xml").getPath();
+        String cascadePath = new File(dir, "haarcascade_frontalface_alt.xml").getPath();
+        String labelsPath = new File(dir, TrainModel.LABELS_PATH).getPath();
+
+        if (!new File(labelsPath).exists()) {
+            System.out.println(" Label registry not found: " + labelsPath + " (run TrainModel first)");
+            return;
+        }
+        LabelRegistry labels = LabelRegistry.loadOrEmpty(labelsPath);
+
+        //  Course, students and the shared recognizer, loaded once for every camera
+        ConnectionPool pool = ConnectionPool.shared();
+        AttendanceSession session;
+        CourseRecognizer recognizer;
+        try (PooledConnection conn = pool.borrow()) {
+            String courseName = courseName(conn, courseId);
+            if (courseName == null) {
+                System.out.println(" Invalid course ID: " + courseId);
+                pool.close();
+                return;
+            }
+            System.out.println(" Attendance will be marked for: " + courseName);
+            session = AttendanceSession.load(conn, courseId, labels, HITS_REQUIRED);
+            recognizer = CourseRecognizer.open(modelPath, conn, courseId, labels);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            pool.close();
+            return;
+        }
+        System.out.println(" Recognizer: " + recognizer.describe());
+
+        DetectionProfile profile = DetectionProfile.fromSystemProperties();
+        System.out.println(" Detection: " + profile.describe());
+
+        AttendanceWriter writer = AttendanceWriter.fromSystemProperties(pool);
+        AttendanceServer server = new AttendanceServer(courseId, session, writer);
+
+        //  One pipeline per source; the cores are shared out between the cameras
+        int sources = args.length - 1;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int fullEvery = Integer.getInteger("tracker.fullEvery", 0);
+        for (int i = 1; i < args.length; i++) {
+            FrameSource source;
+            try {
+                source = FrameSource.open(args[i]);
+            } catch (RuntimeException e) {
+                System.out.println(" Cannot open " + args[i] + ": " + e.getMessage());
+                continue;
+            }
+            FaceTracker tracker = fullEvery > 0 ? new FaceTracker(fullEvery, HITS_REQUIRED, 80) : null;
+            FramePipeline pipeline = new FramePipeline(source, cascadePath, profile, recognizer, tracker,
+                    FrameGate.fromSystemProperties(),
+                    Integer.getInteger("pipeline.detectors", Math.max(1, cores / 2 / sources)),
+                    Integer.getInteger("pipeline.recognizers", Math.max(1, cores / 4 / sources)),
+                    Integer.getInteger("pipeline.frameQueue", 4),
+                    Integer.getInteger("pipeline.faceQueue", 8),
+                    Integer.getInteger("pipeline.resultQueue", 256));
+            server.cameras.add(new Camera("camera-" + i, source, tracker, pipeline));
+            System.out.println(" camera-" + i + ": " + args[i]);
+        }
+
+        if (server.cameras.isEmpty()) {
+            System.out.println(" No camera could be opened. Exiting...");
+            writer.close(Long.getLong("db.flushTimeoutMs", 10_000));
+        } else {
+            // Ctrl+C stops the cameras but lets the marks reach the database first
+            CountDownLatch finished = new CountDownLatch(1);
+            Thread hook = new Thread(() -> {
+                server.running = false;
+                try {
+                    finished.await(Long.getLong("db.flushTimeoutMs", 10_000) + 5_000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }, "server-shutdown");
+            Runtime.getRuntime().addShutdownHook(hook);
+
+            server.run(Long.getLong("server.durationSec", 0), Long.getLong("server.statusEverySec", 30));
+            server.stop();
+            System.out.println(" Marked " + server.marks() + " student(s) in this session");
+
+            //  Every mark must reach the database before the report reads it back
+            writer.close(Long.getLong("db.flushTimeoutMs", 10_000));
+            generateCSV(pool, courseId);
+            finished.countDown();
+        }
+
+        recognizer.close();
+        pool.close();
+        System.out.println("⏹ Attendance server stopped.");
+    }
+
+    // Starts every camera and waits until the server should stop
+    private void run(long durationSec, long statusEverySec) {
+        for (Camera camera : cameras) {
+            camera.pipeline.start();
+            camera.consumer = new Thread(() -> consume(camera), camera.name + "-results");
+            camera.consumer.setDaemon(true);
+            camera.consumer.start();
+        }
+        System.out.println(" Attendance server started with " + cameras.size() + " camera(s)"
+                + (durationSec > 0 ? " for " + durationSec + " seconds" : "") + "...");
+
+        long start = System.currentTimeMillis();
+        long nextStatus = statusEverySec > 0 ? start + statusEverySec * 1000 : Long.MAX_VALUE;
+        try {
+            while (running && !allDone()) {
+                long now = System.currentTimeMillis();
+                if (durationSec > 0 && now - start >= durationSec * 1000) break;
+                if (now >= nextStatus) {
+                    printStatus();
+                    nextStatus += statusEverySec * 1000;
+                }
+                Thread.sleep(200);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Hands the results of one camera to the shared session. The session and the writer are
+    // thread-safe, so every camera has its own consumer and none waits for another.
+    private void consume(Camera camera) {
+        try {
+            while (running) {
+                FramePipeline.Recognition result = camera.pipeline.poll(100, TimeUnit.MILLISECONDS);
+                if (result == null) continue;
+                camera.recognitions.incrementAndGet();
+                if (result.confidence() >= 80) continue;
+
+                if (session.recordHit(result.label()) == session.hitsRequired()) {
+                    // markIfAbsent decides once for all cameras whether this student still needs a row
+                    int studentId = session.markIfAbsent(result.label());
+                    if (studentId >= 0) {
+                        camera.marks.incrementAndGet();
+                        writer.mark(studentId, courseId);
+                        System.out.println(" Recognized: " + session.name(result.label())
+                                + " on " + camera.name + " (attendance marked)");
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // stop() interrupts the consumers
+        }
+    }
+
+    private boolean allDone() {
+        for (Camera camera : cameras) {
+            if (!camera.pipeline.isDone()) return false;
+        }
+        return true;
+    }
+
+    private void stop() {
+        running = false;
+        for (Camera camera : cameras) {
+            camera.consumer.interrupt();
+            try {
+                camera.consumer.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            camera.pipeline.stop();
+            camera.source.close();
+        }
+        printStatus();
+    }
+
+    private long marks() {
+        long total = 0;
+        for (Camera camera : cameras) total += camera.marks.get();
+        return total;
+    }
+
+    private void printStatus() {
+        for (Camera camera : cameras) {
+            FramePipeline p = camera.pipeline;
+            System.out.println(" " + camera.name + ": frames " + p.grabbedFrames()
+                    + " (dropped " + p.droppedFrames() + ")"
+                    + (p.gate() != null ? ", searched " + p.gate().passed() : "")
+                    + ", faces dropped " + p.droppedFaces()
+                    + ", recognitions " + camera.recognitions.get() + ", marked " + camera.marks.get()
+                    + (camera.tracker != null ? ", tracks " + camera.tracker.tracks()
+                    + " (" + camera.tracker.lockedTracks() + " identified)" : ""));
+        }
+        System.out.println(" Marked so far: " + marks() + ", waiting to be written: " + writer.queued());
+    }
+
+    static String courseName(PooledConnection conn, int courseId) throws SQLException {
+        PreparedStatement ps = conn.prepare("SELECT course_name FROM courses WHERE course_id = ?");
+        ps.setInt(1, courseId);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getString("course_name") : null;
+        }
+    }
+
+    private static void generateCSV(ConnectionPool pool, int courseId) {
+        try (PooledConnection conn = pool.borrow()) {
+            String file = AttendanceReport.write(conn, courseId);
+            System.out.println(" CSV generated: " + file);
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+
+// Everything one attendance session needs to decide whether a recognition should be written,
+// loaded once at session start so the recognition loop never has to ask the database:
+// label -> student_id (from the LabelRegistry), per-label hit counters and the set of students already marked for the course.
+public class AttendanceSession {
+
+    private final int courseId;
+    private final int hitsRequired;
+    private final String[] nameByLabel;
+    private final int[] studentIdByLabel;  // -1 when the label has no students row
+    private final int[] recognitionCount;  // hits so far, indexed by label
+    private final BitSet marked;           // indexed by student_id
+
+    private AttendanceSession(int courseId, int hitsRequired, String[] nameByLabel, int[] studentIdByLabel, BitSet marked) {
+        this.courseId = courseId;
+        this.hitsRequired = hitsRequired;
+        this.nameByLabel = nameByLabel;
+        this.studentIdByLabel = studentIdByLabel;
+        this.recognitionCount = new int[nameByLabel.length];
+        this.marked = marked;
+    }
+
+    public static AttendanceSession load(PooledConnection conn, int courseId, LabelRegistry labels,
+                                         int hitsRequired) throws SQLException {
+        // The registry saved with the model already carries student ids; only people trained before
+        // they had a students row are matched by name here
+        int missing = labels.resolveStudentIds(conn);
+        if (missing > 0) System.out.println(" " + missing + " trained people are not in the students table");
+
+        int maxLabel = labels.maxLabel();
+        String[] nameByLabel = new String[maxLabel + 1];
+        int[] studentIdByLabel = new int[maxLabel + 1];
+        for (int label = 0; label <= maxLabel; label++) {
+            nameByLabel[label] = labels.name(label);
+            studentIdByLabel[label] = labels.studentId(label);
+        }
+
+        // Students who already have a row for this course
+        BitSet marked = new BitSet();
+        PreparedStatement ps = conn.prepare("SELECT student_id FROM attendance_log WHERE course_id = ?");
+        ps.setInt(1, courseId);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) marked.set(rs.getInt("student_id"));
+        }
+
+        return new AttendanceSession(courseId, hitsRequired, nameByLabel, studentIdByLabel, marked);
+    }
+
+    public int courseId() {
+        return courseId;
+    }
+
+    public int hitsRequired() {
+        return hitsRequired;
+    }
+
+    // Counts one confident recognition of the label and returns the new total (0 for unknown labels)
+    public synchronized int recordHit(int label) {
+        if (label < 0 || label >= recognitionCount.length || nameByLabel[label] == null) return 0;
+        return ++recognitionCount[label];
+    }
+
+    // Marks the student behind the label present. Returns their student_id, or -1 if they were already
+    // marked for this course or are not in the students table.
+    public synchronized int markIfAbsent(int label) {
+        if (label < 0 || label >= studentIdByLabel.length) return -1;
+        int studentId = studentIdByLabel[label];
+        if (studentId < 0 || marked.get(studentId)) return -1;
+        marked.set(studentId);
+        return studentId;
+    }
+
+    // True if the student behind the label is marked for this course (before or during this session)
+    public synchronized boolean isMarked(int label) {
+        if (label < 0 || label >= studentIdByLabel.length) return false;
+        int studentId = studentIdByLabel[label];
+        return studentId >= 0 && marked.get(studentId);
+    }
+
+    public String name(int label) {
+        return label >= 0 && label < nameByLabel.length ? nameByLabel[label] : null;
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Write-behind queue for attendance_log. The recognition loop only enqueues; a background thread
+// writes whatever has piled up as one JDBC batch per round trip.
+//
+// With an AttendanceJournal the queue is the journal file: mark() only appends to it, so a slow or
+// unreachable database never holds up recognition and a mark survives a crash or an outage that
+// outlasts the session. The background thread writes the journal to the database in order, backing
+// off from 1 s to 30 s while the database is unreachable, and marks left over from an earlier run
+// are written first.
+public class AttendanceWriter implements AutoCloseable {
+
+    // Inserts the row only if the student is not already marked for the course, so a mark that is
+    // queued twice (or retried after a failed batch) is still written once.
+    static final String INSERT_SQL =
+            "INSERT INTO attendance_log (student_id, course_id, timestamp) "
+                    + "SELECT ?, ?, ? FROM DUAL "
+                    + "WHERE NOT EXISTS (SELECT 1 FROM attendance_log WHERE student_id = ? AND course_id = ?)";
+
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+
+    private record Mark(int studentId, int courseId, Timestamp timestamp) {}
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final BlockingQueue<Mark> queue;         // without a journal
+    private final AttendanceJournal journal;         // or null
+    private final Thread flusher;
+    private final AtomicInteger pending = new AtomicInteger(); // queued or being written
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong(); // marks ahead of the next one, written or not
+    private final Histogram writeTime = Histogram.latency(); // per batch, including retries that failed
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+
+    public AttendanceWriter(ConnectionPool pool, int batchSize, int capacity) {
+        this(pool, batchSize, new LinkedBlockingQueue<>(Math.max(1, capacity)), null);
+    }
+
+    // Writes the marks of the journal, starting with any an earlier run left behind
+    public AttendanceWriter(ConnectionPool pool, int batchSize, AttendanceJournal journal) {
+        this(pool, batchSize, null, journal);
+    }
+
+    private AttendanceWriter(ConnectionPool pool, int batchSize, BlockingQueue<Mark> queue, AttendanceJournal journal) {
+        this.pool = pool;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = queue;
+        this.journal = journal;
+        if (journal != null) accepted.set(journal.pending()); // left by an earlier run, written first
+        this.flusher = new Thread(journal != null ? this::syncLoop : this::flushLoop, "attendance-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // The writer -Ddb.* describes: journaled to -Ddb.journal (default attendance.journal, fsync every
+    // -Ddb.journalSyncMs, default 20), or with -Ddb.journal= an in-memory queue of -Ddb.queueCapacity.
+    // -Ddb.batchSize marks per round trip. Falls back to the in-memory queue if the journal cannot be opened.
+    public static AttendanceWriter fromSystemProperties(ConnectionPool pool) {
+        int batchSize = Integer.getInteger("db.batchSize", 50);
+        String path = System.getProperty("db.journal", AttendanceJournal.DEFAULT_PATH);
+        if (!path.isEmpty()) {
+            try {
+                AttendanceJournal journal = AttendanceJournal.open(Path.of(path), Long.getLong("db.journalSyncMs", 20));
+                int left = journal.pending();
+                if (left > 0) System.out.println(" " + left + " attendance marks from an earlier session are still to be written");
+                return new AttendanceWriter(pool, batchSize, journal);
+            } catch (IOException e) {
+                System.err.println(" Cannot open attendance journal: " + e.getMessage() + "; marks are kept in memory only");
+            }
+        }
+        return new AttendanceWriter(pool, batchSize, Integer.getInteger("db.queueCapacity", 10_000));
+    }
+
+    // Queues a mark. With a journal it never waits for the database; without one it blocks only if
+    // `capacity` marks are already waiting for it.
+    public void mark(int studentId, int courseId) {
+        if (!accepting) throw new IllegalStateException("AttendanceWriter is closed");
+        accepted.incrementAndGet();
+        if (journal != null) {
+            journal.append(studentId, courseId, System.currentTimeMillis());
+            return;
+        }
+        pending.incrementAndGet();
+        try {
+            queue.put(new Mark(studentId, courseId, Timestamp.valueOf(LocalDateTime.now())));
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            accepted.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int queued() {
+        return journal != null ? journal.pending() : pending.get();
+    }
+
+    public long written() {
+        return written.get();
+    }
+
+    // Waits up to timeoutMs until every mark queued so far is in the database, e.g. before a report
+    // of one session while other sessions keep marking. Marks are written in order. False on timeout.
+    public boolean awaitWritten(long timeoutMs) {
+        long target = accepted.get();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (written.get() < target) {
+            if (System.currentTimeMillis() >= deadline) return false;
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Batch write latency, marks written and marks waiting
+    public void registerWith(Metrics metrics) {
+        metrics.histogram("dbWrite", writeTime);
+        metrics.counter("db.written", written::get);
+        metrics.gauge("db.queue", this::queued);
+        if (journal != null) journal.registerWith(metrics);
+    }
+
+    private void flushLoop() {
+        List<Mark> batch = new ArrayList<>(batchSize);
+        while (running || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Mark first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+
+                long start = System.nanoTime();
+                try {
+                    writeBatch(batch);
+                } finally {
+                    writeTime.recordSince(start);
+                }
+                written.addAndGet(batch.size());
+                pending.addAndGet(-batch.size());
+                batch.clear();
+            } catch (SQLException e) {
+                // keep the batch and try again; close() bounds how long we keep trying
+                System.err.println(" Could not write attendance batch (" + batch.size() + " marks): " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    // Journal mode: the batch is re-read from the journal until it has been committed and acknowledged.
+    // The thread is woken with unpark, never interrupted: an interrupt would close the journal's channel.
+    private void syncLoop() {
+        List<Mark> batch = new ArrayList<>(batchSize);
+        AttendanceJournal.Visitor collect = (studentId, courseId, millis) ->
+                batch.add(new Mark(studentId, courseId, new Timestamp(millis)));
+        long retryDelay = RETRY_DELAY_MS;
+        boolean failing = false;
+        while (running) {
+            try {
+                batch.clear();
+                if (journal.read(batchSize, collect) == 0) {
+                    LockSupport.parkNanos(100_000_000L);
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    writeBatch(batch);
+                } finally {
+                    writeTime.recordSince(start);
+                }
+                journal.acknowledge(batch.size());
+                written.addAndGet(batch.size());
+                if (failing) System.out.println(" Database reachable again, writing " + queued() + " waiting attendance marks");
+                failing = false;
+                retryDelay = RETRY_DELAY_MS;
+            } catch (SQLException e) {
+                // the marks stay in the journal; report the outage once, not every retry
+                if (!failing) System.err.println(" Could not write attendance batch (" + batch.size() + " marks): "
+                        + e.getMessage() + "; retrying, marks are kept in " + journal.path());
+                failing = true;
+                LockSupport.parkNanos(retryDelay * 1_000_000);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+            } catch (IOException | IllegalStateException e) {
+                System.err.println(" Could not read attendance journal: " + e.getMessage());
+                LockSupport.parkNanos(RETRY_DELAY_MS * 1_000_000);
+            }
+        }
+    }
+
+    private void writeBatch(List<Mark> batch) throws SQLException {
+        try (PooledConnection conn = pool.borrow()) {
+            conn.connection().setAutoCommit(false);
+            PreparedStatement ps = conn.prepare(INSERT_SQL);
+            for (Mark m : batch) {
+                ps.setInt(1, m.studentId());
+                ps.setInt(2, m.courseId());
+                ps.setTimestamp(3, m.timestamp());
+                ps.setInt(4, m.studentId());
+                ps.setInt(5, m.courseId());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            conn.connection().commit();
+        }
+    }
+
+    // Stops accepting marks and waits up to timeoutMs for the queue to reach the database.
+    // Returns how many marks could not be written in time; with a journal they are written next run.
+    public int close(long timeoutMs) {
+        accepting = false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (queued() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        running = false;
+        if (journal != null) LockSupport.unpark(flusher);
+        else flusher.interrupt();
+        try {
+            flusher.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int lost = queued();
+        if (journal != null) {
+            journal.close();
+            if (lost > 0) {
+                System.err.println(" " + lost + " attendance marks are kept in " + journal.path()
+                        + " and will be written by the next session.");
+            }
+        } else if (lost > 0) {
+            System.err.println(" " + lost + " attendance marks were not written before the session ended.");
+        }
+        return lost;
+    }
+
+    @Override
+    public void close() {
+        close(Long.getLong("db.flushTimeoutMs", 10_000));
+    }
+}
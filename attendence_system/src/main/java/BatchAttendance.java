@@ -0,0 +1,255 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Marks attendance from recorded lectures after the fact:
+//
+//   java BatchAttendance <courseId>=<video> [<courseId>=<video> ...]
+//   java BatchAttendance --list jobs.txt        (one "<courseId> <video>" per line, # comments)
+//
+// Videos are processed in parallel by -Dbatch.workers threads (default: one per core). Each worker
+// loads the Haar cascade once and then takes videos off a shared queue until none are left. The
+// model is loaded once, as -Drecognizer.* asks (CourseRecognizer.openAll), and shared by all
+// workers. Only every -Dbatch.stride-th frame (default 5) is decoded and searched; the frames in
+// between are skipped without decoding.
+//
+// Videos of the same course share one AttendanceSession, so hits add up across recordings and a
+// student is marked once per course. At the end the usual attendance_report_course_<id>.csv is
+// written for every course and a throughput summary is printed.
+//   -Dbatch.dir=D:/finall/attendence_system/   model, labels and cascade
+//   -Ddetect.*                                  detection profile (see DetectionProfile)
+public class BatchAttendance {
+
+    private static final int HITS_REQUIRED = 3;
+
+    private record Job(int courseId, String source) {}
+
+    // Counts for the video a worker is on
+    private static final class Progress {
+        long searched;
+        int marked;
+    }
+
+    private final FaceMatcher recognizer;
+    private final String cascadePath;
+    private final DetectionProfile profile;
+    private final int stride;
+    private final Map<Integer, AttendanceSession> sessions;
+    private final AttendanceWriter writer;
+    private final ConcurrentLinkedQueue<Job> jobs;
+
+    private final AtomicLong videos = new AtomicLong();
+    private final AtomicLong framesRead = new AtomicLong();
+    private final AtomicLong framesSearched = new AtomicLong();
+    private final AtomicLong faces = new AtomicLong();
+    private final AtomicLong marks = new AtomicLong();
+
+    private BatchAttendance(FaceMatcher recognizer, String cascadePath, DetectionProfile profile, int stride,
+                            Map<Integer, AttendanceSession> sessions, AttendanceWriter writer, List<Job> jobs) {
+        this.recognizer = recognizer;
+        this.cascadePath = cascadePath;
+        this.profile = profile;
+        this.stride = stride;
+        this.sessions = sessions;
+        this.writer = writer;
+        this.jobs = new ConcurrentLinkedQueue<>(jobs);
+    }
+
+    public static void main(String[] args) {
+        List<Job> jobs;
+        try {
+            jobs = parseJobs(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(" " + e.getMessage());
+            jobs = new ArrayList<>();
+        }
+        if (jobs.isEmpty()) {
+            System.out.println("Usage: BatchAttendance <courseId>=<video> [...] | --list <file>");
+            return;
+        }
+
+        String dir = System.getProperty("batch.dir", "D:/finall/attendence_system/");
+        String labelsPath = new File(dir, TrainModel.LABELS_PATH).getPath();
+        if (!new File(labelsPath).exists()) {
+            System.out.println(" Label registry not found: " + labelsPath + " (run TrainModel first)");
+            return;
+        }
+        LabelRegistry labels = LabelRegistry.loadOrEmpty(labelsPath);
+
+        //  One session per course, loaded before any video is opened
+        ConnectionPool pool = ConnectionPool.shared();
+        Map<Integer, AttendanceSession> sessions = new TreeMap<>();
+        try (PooledConnection conn = pool.borrow()) {
+            for (Job job : jobs) {
+                if (sessions.containsKey(job.courseId())) continue;
+                if (AttendanceServer.courseName(conn, job.courseId()) == null) {
+                    System.out.println(" Invalid course ID: " + job.courseId() + " (skipping " + job.source() + ")");
+                    continue;
+                }
+                sessions.put(job.courseId(), AttendanceSession.load(conn, job.courseId(), labels, HITS_REQUIRED));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            pool.close();
+            return;
+        }
+        jobs.removeIf(job -> !sessions.containsKey(job.courseId()));
+
+        DetectionProfile profile = DetectionProfile.fromSystemProperties();
+        int stride = Math.max(1, Integer.getInteger("batch.stride", 5));
+        int workers = Math.max(1, Math.min(jobs.size(),
+                Integer.getInteger("batch.workers", Runtime.getRuntime().availableProcessors())));
+        System.out.println(" " + jobs.size() + " video(s) for " + sessions.size() + " course(s), "
+                + workers + " worker(s), 1 in " + stride + " frames searched");
+        System.out.println(" Detection: " + profile.describe());
+
+        AttendanceWriter writer = AttendanceWriter.fromSystemProperties(pool);
+        CourseRecognizer recognizer = CourseRecognizer.openAll(new File(dir, "trained_model.xml").getPath());
+        System.out.println(" Model: " + recognizer.describe());
+
+        String cascadePath = new File(dir, "haarcascade_frontalface_alt.xml").getPath();
+        BatchAttendance batch = new BatchAttendance(recognizer, cascadePath, profile, stride,
+                sessions, writer, jobs);
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            Thread t = new Thread(batch::work, "batch-" + (i + 1));
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        recognizer.close();
+
+        //  Every mark must reach the database before the reports read it back
+        writer.close(Long.getLong("db.flushTimeoutMs", 10_000));
+        try (PooledConnection conn = pool.borrow()) {
+            for (String file : AttendanceReport.write(conn, new ArrayList<>(sessions.keySet()), null, null)) {
+                System.out.println(" CSV generated: " + file);
+            }
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+        pool.close();
+
+        batch.printSummary(seconds);
+    }
+
+    // One worker: loads the cascade once, then processes videos until the queue is empty
+    private void work() {
+        CascadeClassifier cascade = new CascadeClassifier(cascadePath);
+        FrameScratch scratch = new FrameScratch();
+        Mat frame = new Mat();
+
+        try {
+            Job job;
+            while ((job = jobs.poll()) != null) {
+                try (FrameSource source = FrameSource.open(job.source())) {
+                    long start = System.nanoTime();
+                    Progress progress = new Progress();
+                    process(source, sessions.get(job.courseId()), job.courseId(),
+                            recognizer, cascade, scratch, frame, progress);
+                    videos.incrementAndGet();
+                    System.out.printf(" %s: course %d, %d frames searched, %d marked, %.1f s%n",
+                            job.source(), job.courseId(), progress.searched, progress.marked,
+                            (System.nanoTime() - start) / 1e9);
+                } catch (RuntimeException e) {
+                    System.out.println(" Cannot process " + job.source() + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            frame.close();
+            scratch.close();
+            cascade.close();
+        }
+    }
+
+    // Reads one video to the end
+    private void process(FrameSource source, AttendanceSession session, int courseId, FaceMatcher recognizer,
+                         CascadeClassifier cascade, FrameScratch scratch, Mat frame, Progress progress) {
+        long frameNumber = 0;
+        while (true) {
+            boolean sampled = frameNumber++ % stride == 0;
+            if (!(sampled ? source.read(frame) : source.skip(frame))) {
+                if (source.isFinished()) break;
+                continue;
+            }
+            framesRead.incrementAndGet();
+            if (!sampled) continue;
+            framesSearched.incrementAndGet();
+            progress.searched++;
+
+            opencv_imgproc.cvtColor(frame, scratch.gray, opencv_imgproc.COLOR_BGR2GRAY);
+            profile.detect(cascade, scratch);
+            int count = scratch.faceCount();
+            faces.addAndGet(count);
+            for (int i = 0; i < count; i++) {
+                scratch.cropFace(i, scratch.face);
+                recognizer.predict(scratch.face, scratch.label, scratch.confidence);
+                int label = scratch.label[0];
+                if (scratch.confidence[0] >= 80) continue;
+
+                if (session.recordHit(label) == session.hitsRequired()) {
+                    int studentId = session.markIfAbsent(label);
+                    if (studentId >= 0) {
+                        writer.mark(studentId, courseId);
+                        marks.incrementAndGet();
+                        progress.marked++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void printSummary(double seconds) {
+        System.out.printf(" Processed %d video(s) in %.1f s: %d frames read, %d searched, %d faces, %d marked%n",
+                videos.get(), seconds, framesRead.get(), framesSearched.get(), faces.get(), marks.get());
+        System.out.printf(" Throughput: %.1f frames/s read, %.1f frames/s searched, %.1f faces/s%n",
+                framesRead.get() / seconds, framesSearched.get() / seconds, faces.get() / seconds);
+    }
+
+    private static List<Job> parseJobs(String[] args) throws IOException {
+        List<String> specs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--list") && i + 1 < args.length) {
+                for (String line : Files.readAllLines(new File(args[++i]).toPath(), StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    String[] p = line.split("\\s+", 2);
+                    if (p.length != 2) throw new IllegalArgumentException("Expected \"<courseId> <video>\": " + line);
+                    specs.add(p[0] + "=" + p[1]);
+                }
+            } else {
+                specs.add(args[i]);
+            }
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (String spec : specs) {
+            int eq = spec.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Expected <courseId>=<video>: " + spec);
+            jobs.add(new Job(Integer.parseInt(spec.substring(0, eq).trim()), spec.substring(eq + 1).trim()));
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Recognizes all faces of a frame in one call instead of one predict per face. The faces are
+// cropped into one FaceBatch stack and the labels and distances come back in its arrays.
+//   LbpIndex (directly or inside a CourseRecognizer)  the whole stack is copied to the heap in
+//       one go and every face is histogrammed and searched in pure Java: one JNI crossing per
+//       frame instead of several per face
+//   any other FaceMatcher (LBPH, sharded)  each face's slice of the stack is passed to predict;
+//       LBPH has no batch call, but the out-arrays are shared and the faces can run in parallel
+// A batch of at least minParallel faces is split over `threads` threads, the caller included,
+// which take faces one at a time until none are left.
+//
+// Not thread-safe: one per recognizing thread. Allocates nothing per frame once each thread has
+// made its first call.
+public class BatchRecognizer implements AutoCloseable {
+
+    private final FaceMatcher matcher;
+    private final LbpIndex index;
+    private final int minParallel;
+    private final ThreadPoolExecutor executor;
+    private final int helpers;
+    private final Runnable helper = this::help;
+    private final ThreadLocal<Result> results = ThreadLocal.withInitial(Result::new);
+
+    // The batch being predicted and the caller waiting for it
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile FaceBatch current;
+    private volatile byte[] pixels;
+    private volatile Thread caller;
+    private volatile RuntimeException failure;
+
+    public BatchRecognizer(FaceMatcher matcher, int threads, int minParallel) {
+        this.matcher = matcher;
+        FaceMatcher inner = matcher instanceof CourseRecognizer course ? course.matcher() : matcher;
+        this.index = inner instanceof LbpIndex lbp ? lbp : null;
+        this.minParallel = Math.max(2, minParallel);
+        this.helpers = Math.max(0, threads - 1);
+        if (helpers > 0) {
+            // A bounded array queue, so handing work to a helper does not allocate a queue node
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(helpers, helpers, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(helpers), r -> {
+                        Thread t = new Thread(r, "batch-recognizer-" + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.prestartAllCoreThreads();
+        } else {
+            executor = null;
+        }
+    }
+
+    // -Drecognizer.batchThreads (default 1: the calling thread only) and -Drecognizer.batchMinParallel (default 4)
+    public static BatchRecognizer fromSystemProperties(FaceMatcher matcher) {
+        return new BatchRecognizer(matcher,
+                Integer.getInteger("recognizer.batchThreads", 1),
+                Integer.getInteger("recognizer.batchMinParallel", 4));
+    }
+
+    // Crops every face the last detection left in scratch.rects out of scratch.gray into batch
+    // (cleared first) and predicts them. Returns the number of faces.
+    public int predict(FrameScratch scratch, FaceBatch batch) {
+        batch.clear();
+        int count = scratch.faceCount();
+        for (int i = 0; i < count; i++) scratch.cropFace(i, batch.add(-1));
+        predict(batch);
+        return count;
+    }
+
+    // Fills the label and confidence of every face in the batch
+    public void predict(FaceBatch batch) {
+        int n = batch.size();
+        if (n == 0) return;
+        current = batch;
+        pixels = index != null ? batch.pixels() : null;
+        next.set(0);
+
+        int started = n >= minParallel ? Math.min(helpers, n - 1) : 0;
+        if (started > 0) {
+            caller = Thread.currentThread();
+            remaining.set(started);
+            for (int i = 0; i < started; i++) executor.execute(helper);
+        }
+        try {
+            work(batch);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        while (remaining.get() > 0) LockSupport.park(this);
+        current = null;
+        pixels = null;
+
+        RuntimeException f = failure;
+        if (f != null) {
+            failure = null;
+            throw f;
+        }
+    }
+
+    private void help() {
+        try {
+            work(current);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            if (remaining.decrementAndGet() == 0) LockSupport.unpark(caller);
+        }
+    }
+
+    // Takes faces off the batch until none are left
+    private void work(FaceBatch batch) {
+        int n = batch.size();
+        int[] labels = batch.labels();
+        double[] confidences = batch.confidences();
+        int i;
+        while ((i = next.getAndIncrement()) < n) {
+            if (index != null) {
+                index.predict(pixels, i * FaceBatch.FACE_PIXELS, FrameScratch.FACE_SIZE, FrameScratch.FACE_SIZE,
+                        labels, confidences, i);
+            } else {
+                Result r = results.get();
+                matcher.predict(batch.face(i), r.label, r.confidence);
+                labels[i] = r.label[0];
+                confidences[i] = r.confidence[0];
+            }
+        }
+    }
+
+    // e.g. "LbpIndex, pure Java, 4 thread(s)"
+    public String describe() {
+        return (index != null ? "LbpIndex, pure Java" : "per-face predict") + ", " + (helpers + 1) + " thread(s)";
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    // Per thread out-arrays for FaceMatcher.predict
+    private static final class Result {
+        final int[] label = new int[1];
+        final double[] confidence = new double[1];
+    }
+}
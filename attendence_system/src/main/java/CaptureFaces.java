@@ -1,13 +1,13 @@
 import org.bytedeco.opencv.opencv_core.*;
 import org.bytedeco.opencv.opencv_imgproc.*;
 import org.bytedeco.opencv.opencv_objdetect.*;
-import org.bytedeco.opencv.opencv_videoio.*;
-import org.bytedeco.opencv.global.opencv_imgcodecs;
 import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.global.opencv_highgui;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.*;
+import java.util.List;
 import java.util.Scanner;
 
 public class CaptureFaces {
@@ -42,44 +42,84 @@ public class CaptureFaces {
             return;
         }
 
-        // Open webcam
-        VideoCapture camera = new VideoCapture(0);
-        if (!camera.isOpened()) {
-            System.err.println(" Error: Cannot open camera!");
+        // Open webcam (or the recording / image folder given as the first argument)
+        FrameSource camera;
+        try {
+            camera = FrameSource.open(args.length > 0 ? args[0] : "webcam:0");
+        } catch (RuntimeException e) {
+            System.err.println(" Error: Cannot open camera! " + e.getMessage());
             return;
         }
+        boolean fast = FrameSource.fastMode();
 
         Mat frame = new Mat();
-        Mat gray = new Mat();
+        FrameScratch scratch = new FrameScratch();
+        DetectionProfile profile = DetectionProfile.fromSystemProperties();
+        Mat gray = scratch.gray;
         int count = 0;
+        int blurry = 0;
+        int repeats = 0;
         int target = 70; // Number of images to capture
 
+        // Crops are kept when they are sharp and unlike the ones before (see SampleSelector) and
+        // written to disk by background threads, so the loop runs at camera speed
+        SampleSelector selector = SampleSelector.fromSystemProperties();
+        AsyncImageWriter writer = new AsyncImageWriter(
+                Integer.getInteger("capture.writers", 2),
+                Integer.getInteger("capture.writeQueue", 16));
+
+        // Once the dataset has been packed (TrainModel --pack), new samples are appended to it as
+        // well, already cropped to 200x200. A missing file is not created: it would hold only this student.
+        FaceDataset.Appender packed = null;
+        if (new File(TrainModel.PACKED_PATH).exists()) {
+            try {
+                packed = FaceDataset.appender(TrainModel.PACKED_PATH);
+            } catch (IOException e) {
+                System.err.println(" Cannot append to " + TrainModel.PACKED_PATH + ": " + e.getMessage());
+            }
+        }
+
         System.out.println(" Capturing faces for " + studentName + "... Look at the camera!");
         System.out.println("Press Stop button to stop early.");
 
         while (count < target) {
-            if (!camera.read(frame) || frame.empty()) continue;
+            if (!camera.read(frame)) {
+                if (camera.isFinished()) break;
+                continue;
+            }
 
             opencv_imgproc.cvtColor(frame, gray, opencv_imgproc.COLOR_BGR2GRAY);
 
-            RectVector faces = new RectVector();
-            faceDetector.detectMultiScale(gray, faces);
+            profile.detect(faceDetector, scratch);
+            RectVector faces = scratch.rects;
 
             for (int i = 0; i < faces.size(); i++) {
                 Rect rect = faces.get(i);
                 opencv_imgproc.rectangle(frame, rect, new Scalar(0, 255, 0, 0), 2, 8, 0);
                 Mat face = new Mat(gray, rect);
 
-                String filename = folder + "/" + (count + 1) + ".jpg";
-                boolean ok = opencv_imgcodecs.imwrite(filename, face);
-                if (ok) {
+                if (selector.consider(face)) {
+                    selector.accept();
                     count++;
-                    System.out.println(" Saved: " + filename);
+                    File file = new File(folder, count + ".jpg");
+                    writer.write(face, file);
+                    if (packed != null) {
+                        scratch.cropFace(rect.x(), rect.y(), rect.width(), rect.height(), scratch.face);
+                        try {
+                            packed.add(studentName, scratch.face);
+                        } catch (IOException e) {
+                            System.err.println(" Cannot append to " + TrainModel.PACKED_PATH + ": " + e.getMessage());
+                            packed = null;
+                        }
+                    }
+                    System.out.printf(" Captured: %s (sharpness %.0f, novelty %.2f)%n",
+                            file.getPath(), selector.lastSharpness(), selector.lastNovelty());
+                } else if (selector.lastSharpness() < selector.minSharpness()) {
+                    blurry++;
                 } else {
-                    System.err.println(" Failed to save: " + filename);
+                    repeats++;
                 }
-
-                try { Thread.sleep(200); } catch (InterruptedException ignored) {}
+                face.close();
                 if (count >= target) break;
             }
 
@@ -87,27 +127,46 @@ public class CaptureFaces {
                     new Point(10, 25), opencv_imgproc.FONT_HERSHEY_SIMPLEX, 0.8,
                     new Scalar(0, 255, 255, 0), 2, opencv_imgproc.LINE_AA, false);
 
+            if (fast) continue; // headless replay: no window, no waitKey pacing
+
             opencv_highgui.imshow("Face Capture", frame);
             int key = opencv_highgui.waitKey(30);
             if (key == 27) break; // ESC pressed
         }
 
-        camera.release();
+        camera.close();
+        scratch.close();
+        selector.close();
         opencv_highgui.destroyAllWindows();
-        System.out.println(" Face capture completed for " + studentName + " — total saved: " + count);
+
+        //  Wait for the last images to reach the disk
+        writer.close(Long.getLong("capture.flushTimeoutMs", 10_000));
+        if (packed != null) {
+            try {
+                packed.close();
+            } catch (IOException e) {
+                System.err.println(" Cannot write " + TrainModel.PACKED_PATH + ": " + e.getMessage());
+            }
+        }
+        List<File> saved = writer.written();
+        System.out.println(" Face capture completed for " + studentName + " — total saved: " + saved.size()
+                + " (skipped " + blurry + " blurry and " + repeats + " repeated crops)");
+
+        // With a model already trained, add just this student to it instead of retraining everyone
+        if (!saved.isEmpty() && new File(TrainModel.MODEL_PATH).exists()) {
+            TrainModel.enroll(studentName, studentId, saved.toArray(new File[0]));
+        }
     }
 
     //  Add student to database and return student_id
     private static int addStudentToDB(String studentName) {
-        String url = "jdbc:mysql://localhost:3306/fdbas";
-        String user = "root";
-        String password = "12345";
         int studentId = -1;
 
-        try (Connection conn = DriverManager.getConnection(url, user, password)) {
+        try (PooledConnection pooled = ConnectionPool.shared().borrow()) {
+            Connection conn = pooled.connection();
+
             // Check if student already exists
-            PreparedStatement check = conn.prepareStatement(
-                    "SELECT student_id FROM students WHERE name = ?");
+            PreparedStatement check = pooled.prepare("SELECT student_id FROM students WHERE name = ?");
             check.setString(1, studentName);
             ResultSet rs = check.executeQuery();
 
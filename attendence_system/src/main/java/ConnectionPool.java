@@ -0,0 +1,129 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Keeps a few JDBC connections open for the whole session instead of opening one per query.
+// Connection settings come from -Ddb.url / -Ddb.user / -Ddb.password, so any JDBC database
+// (e.g. an embedded one for local testing) can stand in for the MySQL server.
+//
+// Besides students(student_id, name), courses(course_id, course_name) and
+// attendance_log(student_id, course_id, timestamp), the database may hold the course rosters that
+// ShardedRecognizer.enrolledLabels and SessionController read:
+//   CREATE TABLE enrollments (
+//       student_id INT NOT NULL REFERENCES students(student_id),
+//       course_id  INT NOT NULL REFERENCES courses(course_id),
+//       PRIMARY KEY (course_id, student_id)
+//   );
+// Without it every course is matched against all students and sessions end on the quiet/time limits.
+public class ConnectionPool implements AutoCloseable {
+
+    public static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/fdbas";
+    public static final String DEFAULT_USER = "root";
+    public static final String DEFAULT_PASSWORD = "12345";
+
+    // An idle connection older than this is pinged before it is handed out again
+    private static final long VALIDATE_AFTER_MS = 30_000;
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+
+    private static ConnectionPool shared;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, int maxSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    // The process-wide pool, configured from system properties on first use
+    public static synchronized ConnectionPool shared() {
+        if (shared == null) {
+            shared = new ConnectionPool(
+                    System.getProperty("db.url", DEFAULT_URL),
+                    System.getProperty("db.user", DEFAULT_USER),
+                    System.getProperty("db.password", DEFAULT_PASSWORD),
+                    Integer.getInteger("db.poolSize", 4));
+        }
+        return shared;
+    }
+
+    public PooledConnection borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+
+        while (true) {
+            PooledConnection pooled = idle.poll();
+
+            if (pooled == null && opened.incrementAndGet() <= maxSize) {
+                try {
+                    return new PooledConnection(this, DriverManager.getConnection(url, user, password));
+                } catch (SQLException e) {
+                    opened.decrementAndGet();
+                    throw e;
+                }
+            } else if (pooled == null) {
+                opened.decrementAndGet();
+                try {
+                    pooled = idle.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection", e);
+                }
+                if (pooled == null) throw new SQLException("Timed out waiting for a database connection");
+            }
+
+            if (isUsable(pooled)) return pooled;
+            discard(pooled);
+        }
+    }
+
+    void release(PooledConnection pooled) {
+        try {
+            if (closed || pooled.connection().isClosed()) {
+                discard(pooled);
+                return;
+            }
+            if (!pooled.connection().getAutoCommit()) {
+                pooled.connection().rollback();
+                pooled.connection().setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+            return;
+        }
+        pooled.touch();
+        idle.offer(pooled);
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            if (pooled.connection().isClosed()) return false;
+            if (System.currentTimeMillis() - pooled.lastUsed() < VALIDATE_AFTER_MS) return true;
+            return pooled.connection().isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        opened.decrementAndGet();
+        pooled.closeQuietly();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) discard(pooled);
+    }
+}
@@ -0,0 +1,109 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+
+import java.sql.SQLException;
+import java.util.BitSet;
+
+// The trained model set up for one course the way the system properties ask for it:
+//   -Drecognizer.shards=N             split the model into shards searched in parallel
+//   -Drecognizer.courseOnly=true      only search the students enrolled in this course
+//   -Drecognizer.index=exact|clustered match in pure Java with LbpIndex instead of OpenCV
+// Plain LBPH predict otherwise. With -Drecognizer.index and an up-to-date snapshot next to the model
+// (see ModelSnapshot), the index is filled from the snapshot without parsing the XML. LbpIndex sums
+// its distances in float where LBPH uses double, so a face right at the threshold can come out on
+// the other side of it.
+// A roster with no student in the model is ignored: every student is searched, as without one.
+// predict is safe to call from several threads, so one instance serves every camera of a session.
+public class CourseRecognizer implements FaceMatcher, AutoCloseable {
+
+    private final LBPHFaceRecognizer model;   // null when the snapshot was used
+    private final FaceMatcher matcher;
+    private final ShardedRecognizer sharded;  // null unless the model was sharded
+    private final String description;
+
+    private CourseRecognizer(LBPHFaceRecognizer model, FaceMatcher matcher, ShardedRecognizer sharded,
+                             String description) {
+        this.model = model;
+        this.matcher = matcher;
+        this.sharded = sharded;
+        this.description = description;
+    }
+
+    public static CourseRecognizer open(String modelPath, PooledConnection conn, int courseId,
+                                        LabelRegistry labels) throws SQLException {
+        BitSet enrolled = null;
+        if (Boolean.getBoolean("recognizer.courseOnly")) {
+            enrolled = ShardedRecognizer.enrolledLabels(conn, courseId, labels);
+        }
+        return open(modelPath, enrolled);
+    }
+
+    // Every student of the model, for sessions of several courses at once (-Drecognizer.courseOnly
+    // does not apply)
+    public static CourseRecognizer openAll(String modelPath) {
+        return open(modelPath, null);
+    }
+
+    private static CourseRecognizer open(String modelPath, BitSet enrolled) {
+        BitSet allowed = enrolled != null && !enrolled.isEmpty() ? enrolled : null;
+
+        int shards = Integer.getInteger("recognizer.shards", 1);
+        String indexMode = System.getProperty("recognizer.index", "");
+        ModelSnapshot snapshot = indexMode.isEmpty() ? null : ModelSnapshot.loadIfCurrent(modelPath);
+        if (snapshot != null) {
+            LbpIndex index = snapshot.toIndex(allowed);
+            if (index.size() == 0 && allowed != null) {
+                System.out.println(" No enrolled student of this course is in the model, searching all students");
+                index = snapshot.toIndex(null);
+            }
+            if (indexMode.equals("clustered")) index.cluster();
+            return new CourseRecognizer(null, index, null, index.describe() + " (snapshot)");
+        }
+
+        LBPHFaceRecognizer model = LBPHFaceRecognizer.create();
+        model.read(modelPath);
+        if (!indexMode.isEmpty()) {
+            LbpIndex index = LbpIndex.fromModel(model, allowed);
+            if (index.size() == 0 && allowed != null) {
+                System.out.println(" No enrolled student of this course is in the model, searching all students");
+                index = LbpIndex.fromModel(model, null);
+            }
+            if (indexMode.equals("clustered")) index.cluster();
+            return new CourseRecognizer(model, index, null, index.describe());
+        }
+        if (shards > 1 || enrolled != null) {
+            ShardedRecognizer sharded = ShardedRecognizer.split(model, shards);
+            if (enrolled != null) {
+                try {
+                    ShardedRecognizer course = sharded.restrictTo(enrolled);
+                    sharded.close();
+                    sharded = course;
+                } catch (IllegalArgumentException e) {
+                    System.out.println(" No enrolled student of this course is in the model, searching all students");
+                }
+            }
+            return new CourseRecognizer(model, sharded, sharded, sharded.describe());
+        }
+        return new CourseRecognizer(model, model::predict, null, "LBPH");
+    }
+
+    @Override
+    public void predict(Mat face, int[] label, double[] confidence) {
+        matcher.predict(face, label, confidence);
+    }
+
+    // What predict delegates to, e.g. the LbpIndex that BatchRecognizer can search directly
+    public FaceMatcher matcher() {
+        return matcher;
+    }
+
+    public String describe() {
+        return description;
+    }
+
+    @Override
+    public void close() {
+        if (sharded != null) sharded.close();
+        if (model != null) model.close();
+    }
+}
@@ -0,0 +1,145 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.io.File;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+// Reads faces/<person>/*.jpg for training. Files are listed first so the MatVector and labels Mat
+// can be allocated at their final size; then images are decoded and resized to 200x200 on a
+// fork-join pool and written straight into their slots. Only one full-size decode per worker thread
+// is alive at a time. Training needs every 200x200 sample in memory at once, so a dataset whose
+// samples would not fit under `memoryCapBytes` is refused up front (IllegalStateException) rather
+// than trained on a part of it.
+public class DatasetLoader {
+
+    public static final int SAMPLE_BYTES = FrameScratch.FACE_SIZE * FrameScratch.FACE_SIZE;
+
+    public record Dataset(MatVector images, Mat labels, int size) {}
+
+    private final int parallelism;
+    private final long memoryCapBytes;
+
+    public DatasetLoader(int parallelism, long memoryCapBytes) {
+        this.parallelism = Math.max(1, parallelism);
+        this.memoryCapBytes = memoryCapBytes;
+    }
+
+    // Settings from -Dtrain.threads and -Dtrain.memoryCapMb
+    public static DatasetLoader fromSystemProperties() {
+        return new DatasetLoader(
+                Integer.getInteger("train.threads", Runtime.getRuntime().availableProcessors()),
+                Long.getLong("train.memoryCapMb", 4096) * 1024 * 1024);
+    }
+
+    // Loads the given person folders; folder i gets label labels[i]. Returns null if there is nothing to train on.
+    public Dataset load(File[] personFolders, int[] labels) throws InterruptedException {
+        List<File[]> imagesPerPerson = new ArrayList<>();
+        for (File personFolder : personFolders) {
+            imagesPerPerson.add(imagesIn(personFolder));
+        }
+        return load(imagesPerPerson, labels);
+    }
+
+    // Loads just these image files, all under one label (used to enrol a single person)
+    public Dataset load(File[] imageFiles, int label) throws InterruptedException {
+        List<File[]> imagesPerPerson = new ArrayList<>();
+        imagesPerPerson.add(imageFiles);
+        return load(imagesPerPerson, new int[]{label});
+    }
+
+    public static File[] imagesIn(File personFolder) {
+        File[] imageFiles = personFolder.listFiles((dir, name) -> name.endsWith(".jpg") || name.endsWith(".png"));
+        if (imageFiles == null) return new File[0];
+        Arrays.sort(imageFiles);
+        return imageFiles;
+    }
+
+    private Dataset load(List<File[]> imagesPerPerson, int[] labels) throws InterruptedException {
+        int total = 0;
+        for (File[] imageFiles : imagesPerPerson) total += imageFiles.length;
+
+        long needed = (long) total * SAMPLE_BYTES;
+        if (needed > memoryCapBytes) {
+            throw new IllegalStateException("The dataset has " + total + " images, " + (needed >> 20)
+                    + " MB as 200x200 samples, more than -Dtrain.memoryCapMb=" + (memoryCapBytes >> 20)
+                    + " allows. Raise the cap, or pack the images with TrainModel --pack: " + TrainModel.PACKED_PATH
+                    + " is mapped from disk instead of loaded.");
+        }
+        if (total == 0) return null;
+
+        // Flatten to (file, label) slots
+        File[] files = new File[total];
+        int[] slotLabels = new int[total];
+        int slot = 0;
+        for (int p = 0; p < imagesPerPerson.size(); p++) {
+            for (File f : imagesPerPerson.get(p)) {
+                files[slot] = f;
+                slotLabels[slot++] = labels[p];
+            }
+        }
+
+        MatVector images = new MatVector(total);
+        boolean[] loaded = new boolean[total];
+        AtomicInteger failures = new AtomicInteger();
+        Size size = new Size(FrameScratch.FACE_SIZE, FrameScratch.FACE_SIZE);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, files.length).parallel().forEach(i -> {
+                Mat img = opencv_imgcodecs.imread(files[i].getAbsolutePath(), opencv_imgcodecs.IMREAD_GRAYSCALE);
+                if (img.empty()) {
+                    System.out.println("Could not read: " + files[i].getAbsolutePath());
+                    failures.incrementAndGet();
+                    img.close();
+                    return;
+                }
+                Mat sample = new Mat(FrameScratch.FACE_SIZE, FrameScratch.FACE_SIZE, opencv_core.CV_8UC1);
+                opencv_imgproc.resize(img, sample, size);
+                img.close();
+                images.put(i, sample); // distinct slots, so workers never touch the same element
+                sample.close();
+                loaded[i] = true;
+            })).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Loading the dataset failed", e.getCause());
+        } finally {
+            pool.shutdown();
+            size.close();
+        }
+
+        int count = total - failures.get();
+        if (count == 0) {
+            images.close();
+            return null;
+        }
+
+        // Unreadable files leave holes; close them up so every slot holds a sample
+        MatVector packed = images;
+        if (count != total) {
+            packed = new MatVector(count);
+            for (int i = 0, j = 0; i < total; i++) {
+                if (!loaded[i]) continue;
+                packed.put(j, images.get(i));
+                slotLabels[j++] = slotLabels[i];
+            }
+            images.close();
+        }
+
+        Mat labelsMat = new Mat(count, 1, opencv_core.CV_32SC1);
+        IntBuffer labelsBuf = labelsMat.createBuffer();
+        labelsBuf.put(slotLabels, 0, count);
+
+        return new Dataset(packed, labelsMat, count);
+    }
+}
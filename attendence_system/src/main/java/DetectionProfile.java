@@ -0,0 +1,182 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// How the Haar cascade is run over a frame. detectMultiScale with default arguments searches every
+// scale of the full-resolution frame; a profile can instead
+//   - pass scaleFactor / minNeighbors (recognize_faces.py uses 1.3 and 5)
+//   - detect on a downscaled copy and map the rects back to full resolution
+//   - bound the face size, e.g. from the camera's field of view and the depth of the room
+//   - only search fixed regions of the frame (the seating area)
+// Every option cuts the number of windows the cascade has to look at.
+//
+// A profile is plain settings and can be shared between threads; the buffers are in FrameScratch.
+public class DetectionProfile {
+
+    // Average face height (chin to forehead) used to turn distances into pixel sizes
+    private static final double FACE_HEIGHT_M = 0.22;
+
+    public final String name;
+    public final double scaleFactor;
+    public final int minNeighbors;
+    public final double downscale;       // 1.0 = full resolution, 0.5 = half width and height
+    public final int minFace;            // in full-resolution pixels, 0 = no limit
+    public final int maxFace;            // in full-resolution pixels, 0 = no limit
+    private final int[] regions;         // x, y, width, height per region; empty = whole frame
+
+    public DetectionProfile(String name, double scaleFactor, int minNeighbors, double downscale,
+                            int minFace, int maxFace, int[] regions) {
+        if (scaleFactor <= 1.0) throw new IllegalArgumentException("scaleFactor must be > 1");
+        if (downscale <= 0 || downscale > 1.0) throw new IllegalArgumentException("downscale must be in (0, 1]");
+        this.name = name;
+        this.scaleFactor = scaleFactor;
+        this.minNeighbors = minNeighbors;
+        this.downscale = downscale;
+        this.minFace = minFace;
+        this.maxFace = maxFace;
+        this.regions = regions.clone();
+    }
+
+    // Built-in profiles:
+    //   default  what detectMultiScale(gray, rects) does: 1.1, 3, full resolution
+    //   python   the settings of recognize_faces.py: 1.3, 5
+    //   fast     1.2, 4 on a half-resolution copy, faces of at least 60 px
+    public static DetectionProfile named(String name) {
+        return switch (name) {
+            case "default" -> new DetectionProfile(name, 1.1, 3, 1.0, 0, 0, new int[0]);
+            case "python" -> new DetectionProfile(name, 1.3, 5, 1.0, 0, 0, new int[0]);
+            case "fast" -> new DetectionProfile(name, 1.2, 4, 0.5, 60, 0, new int[0]);
+            default -> throw new IllegalArgumentException("Unknown detection profile: " + name);
+        };
+    }
+
+    // -Ddetect.profile=default|python|fast, with any of these overriding it:
+    //   -Ddetect.scaleFactor=1.2  -Ddetect.minNeighbors=4  -Ddetect.downscale=0.5
+    //   -Ddetect.minFace=40  -Ddetect.maxFace=300                      (pixels)
+    //   -Ddetect.camera=<frame height px>,<vertical fov deg>,<nearest m>,<farthest m>
+    //                                                                   (min/max face from geometry)
+    //   -Ddetect.roi=x,y,w,h[;x,y,w,h...]                               (seating area)
+    public static DetectionProfile fromSystemProperties() {
+        DetectionProfile base = named(System.getProperty("detect.profile", "default"));
+        int minFace = Integer.getInteger("detect.minFace", base.minFace);
+        int maxFace = Integer.getInteger("detect.maxFace", base.maxFace);
+
+        String camera = System.getProperty("detect.camera");
+        if (camera != null) {
+            String[] p = camera.split(",");
+            if (p.length != 4) throw new IllegalArgumentException("detect.camera needs height,fov,near,far: " + camera);
+            int frameHeight = Integer.parseInt(p[0].trim());
+            double fov = Double.parseDouble(p[1].trim());
+            // A little slack either way: people lean in and sit back
+            maxFace = (int) Math.ceil(faceSizeAt(Double.parseDouble(p[2].trim()), frameHeight, fov) * 1.25);
+            minFace = (int) Math.floor(faceSizeAt(Double.parseDouble(p[3].trim()), frameHeight, fov) * 0.8);
+        }
+
+        int[] regions = base.regions;
+        String roi = System.getProperty("detect.roi");
+        if (roi != null && !roi.isBlank()) regions = parseRegions(roi);
+
+        String name = base.name;
+        if (camera != null || roi != null || System.getProperty("detect.scaleFactor") != null
+                || System.getProperty("detect.minNeighbors") != null || System.getProperty("detect.downscale") != null
+                || minFace != base.minFace || maxFace != base.maxFace) {
+            name += "+custom";
+        }
+        return new DetectionProfile(name,
+                Double.parseDouble(System.getProperty("detect.scaleFactor", String.valueOf(base.scaleFactor))),
+                Integer.getInteger("detect.minNeighbors", base.minNeighbors),
+                Double.parseDouble(System.getProperty("detect.downscale", String.valueOf(base.downscale))),
+                minFace, maxFace, regions);
+    }
+
+    // Height in pixels of a face `distance` metres from a camera with the given vertical field of view
+    public static double faceSizeAt(double distance, int frameHeight, double verticalFovDeg) {
+        double visibleHeight = 2 * distance * Math.tan(Math.toRadians(verticalFovDeg) / 2);
+        return frameHeight * FACE_HEIGHT_M / visibleHeight;
+    }
+
+    // Detects faces in scratch.gray into scratch.rects, in full-resolution frame coordinates
+    public void detect(CascadeClassifier cascade, FrameScratch scratch) {
+        Mat gray = scratch.gray;
+        scratch.rects.clear();
+
+        if (regions.length == 0) {
+            detectRegion(cascade, scratch, gray, 0, 0);
+            scratch.loadRects();
+            return;
+        }
+        for (int k = 0; k < regions.length; k += 4) {
+            // Clip to the frame; a region outside it is skipped
+            int x = Math.max(0, regions[k]);
+            int y = Math.max(0, regions[k + 1]);
+            int w = Math.min(gray.cols(), regions[k] + regions[k + 2]) - x;
+            int h = Math.min(gray.rows(), regions[k + 1] + regions[k + 3]) - y;
+            if (w <= 0 || h <= 0) continue;
+            detectRegion(cascade, scratch, scratch.copyWindow(x, y, w, h), x, y);
+        }
+        scratch.loadRects();
+    }
+
+    // Runs the cascade with this profile's scale factor, neighbours and face size on an image that is
+    // already small (e.g. a tracking window), without downscaling or regions. Results go to scratch.rects.
+    public void detectWindow(CascadeClassifier cascade, FrameScratch scratch, Mat window) {
+        scratch.minSize.width(minFace).height(minFace);
+        scratch.maxSize.width(maxFace).height(maxFace);
+        cascade.detectMultiScale(window, scratch.rects, scaleFactor, minNeighbors, 0, scratch.minSize, scratch.maxSize);
+        scratch.loadRects();
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder(name).append(": scaleFactor ").append(scaleFactor)
+                .append(", minNeighbors ").append(minNeighbors);
+        if (downscale < 1.0) sb.append(", downscale ").append(downscale);
+        if (minFace > 0 || maxFace > 0) {
+            sb.append(", face ").append(minFace).append('-').append(maxFace > 0 ? String.valueOf(maxFace) : "any").append(" px");
+        }
+        if (regions.length > 0) sb.append(", ").append(regions.length / 4).append(" region(s)");
+        return sb.toString();
+    }
+
+    // Detects in one image (the frame or a region copied out of it) at this profile's scale and appends
+    // the rects to scratch.rects, moved by (offsetX, offsetY) and scaled back to full resolution
+    private void detectRegion(CascadeClassifier cascade, FrameScratch scratch, Mat image, int offsetX, int offsetY) {
+        Mat input = image;
+        if (downscale < 1.0) {
+            opencv_imgproc.resize(image, scratch.small, scratch.noSize, downscale, downscale, opencv_imgproc.INTER_AREA);
+            input = scratch.small;
+        }
+
+        // Face limits are given at full resolution; the cascade sees them at the downscaled size
+        int min = (int) Math.round(minFace * downscale);
+        int max = (int) Math.round(maxFace * downscale);
+        scratch.minSize.width(min).height(min);
+        scratch.maxSize.width(max).height(max);
+        cascade.detectMultiScale(input, scratch.regionRects, scaleFactor, minNeighbors, 0, scratch.minSize, scratch.maxSize);
+
+        int count = (int) scratch.regionRects.size();
+        double up = 1.0 / downscale;
+        for (int i = 0; i < count; i++) {
+            Rect r = scratch.regionRect(i);
+            scratch.rects.push_back(scratch.box(offsetX + (int) Math.round(r.x() * up),
+                    offsetY + (int) Math.round(r.y() * up),
+                    (int) Math.round(r.width() * up),
+                    (int) Math.round(r.height() * up)));
+        }
+    }
+
+    private static int[] parseRegions(String spec) {
+        List<Integer> values = new ArrayList<>();
+        for (String region : spec.split(";")) {
+            String[] p = region.split(",");
+            if (p.length != 4) throw new IllegalArgumentException("ROI needs x,y,w,h: " + region);
+            for (String v : p) values.add(Integer.parseInt(v.trim()));
+        }
+        int[] regions = new int[values.size()];
+        for (int i = 0; i < regions.length; i++) regions[i] = values.get(i);
+        return regions;
+    }
+}
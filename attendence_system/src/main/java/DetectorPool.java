@@ -0,0 +1,65 @@
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// A fixed number of loaded Haar cascades shared by every FramePipeline of the process. A detector
+// takes a cascade for one frame's detection and hands it back afterwards, so at most `size` frames
+// are searched at once however many cameras are running: the pool is the CPU budget for detection,
+// and the cascade file is parsed `size` times instead of once per detector thread.
+// CascadeClassifier is not safe to share between threads; each one is only used by the thread
+// holding it. acquire/release are thread-safe and allocate nothing.
+public class DetectorPool implements AutoCloseable {
+
+    private final BlockingQueue<CascadeClassifier> idle;
+    private final CascadeClassifier[] all;
+    private final Histogram waitTime = Histogram.latency();
+
+    public DetectorPool(String cascadePath, int size) {
+        size = Math.max(1, size);
+        idle = new ArrayBlockingQueue<>(size);
+        all = new CascadeClassifier[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = new CascadeClassifier(cascadePath);
+            if (all[i].empty()) {
+                close();
+                throw new IllegalArgumentException("Cannot load cascade " + cascadePath);
+            }
+            idle.add(all[i]);
+        }
+    }
+
+    // Waits for a free cascade
+    public CascadeClassifier acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        CascadeClassifier cascade = idle.take();
+        waitTime.recordSince(start);
+        return cascade;
+    }
+
+    public void release(CascadeClassifier cascade) {
+        idle.offer(cascade);
+    }
+
+    public int size() {
+        return all.length;
+    }
+
+    public int inUse() {
+        return all.length - idle.size();
+    }
+
+    // How long detectors wait for a cascade, and how many are busy
+    public void registerWith(Metrics metrics) {
+        metrics.histogram("detectWait", waitTime);
+        metrics.gauge("detect.inUse", this::inUse);
+    }
+
+    // Only once no pipeline uses the pool any more
+    @Override
+    public void close() {
+        for (CascadeClassifier cascade : all) {
+            if (cascade != null) cascade.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.global.opencv_core;
+
+import java.util.Arrays;
+
+// The faces of one frame, cropped to FACE_SIZE x FACE_SIZE and stacked in a single Mat
+// (face i is rows i*FACE_SIZE .. (i+1)*FACE_SIZE), with one label, confidence and track id per face
+// in plain arrays. BatchRecognizer fills the labels and confidences for the whole batch at once.
+//
+// Reused from frame to frame: clear() and add() again. The stack only grows, so once it has held
+// the most crowded frame a batch allocates nothing. Not thread-safe.
+public class FaceBatch implements AutoCloseable {
+
+    public static final int FACE_PIXELS = FrameScratch.FACE_SIZE * FrameScratch.FACE_SIZE;
+
+    public long frameNumber;
+
+    private Mat stack;
+    private Mat[] faces;
+    private int[] labels;
+    private double[] confidences;
+    private int[] trackIds;
+    private byte[] pixels = new byte[0];
+    private int size;
+
+    public FaceBatch(int capacity) {
+        capacity = Math.max(1, capacity);
+        stack = new Mat(capacity * FrameScratch.FACE_SIZE, FrameScratch.FACE_SIZE, opencv_core.CV_8UC1);
+        faces = new Mat[capacity];
+        for (int i = 0; i < capacity; i++) faces[i] = rows(stack, i);
+        labels = new int[capacity];
+        confidences = new double[capacity];
+        trackIds = new int[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // The buffer for the next face, to crop into (e.g. FrameScratch.cropFace(i, batch.add(-1)))
+    public Mat add(int trackId) {
+        if (size == faces.length) grow();
+        labels[size] = -1;
+        confidences[size] = Double.MAX_VALUE;
+        trackIds[size] = trackId;
+        return faces[size++];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Mat face(int i) {
+        return faces[i];
+    }
+
+    public int label(int i) {
+        return labels[i];
+    }
+
+    public double confidence(int i) {
+        return confidences[i];
+    }
+
+    public int trackId(int i) {
+        return trackIds[i];
+    }
+
+    // Result arrays for BatchRecognizer; entries past size() are meaningless
+    int[] labels() {
+        return labels;
+    }
+
+    double[] confidences() {
+        return confidences;
+    }
+
+    // Every face's pixels on the heap, face i from FACE_PIXELS * i, copied out of the stack in one go
+    byte[] pixels() {
+        int length = size * FACE_PIXELS;
+        if (pixels.length < length) pixels = new byte[faces.length * FACE_PIXELS];
+        stack.data().get(pixels, 0, length);
+        return pixels;
+    }
+
+    // Doubles the stack, keeping the faces already added
+    private void grow() {
+        int capacity = faces.length * 2;
+        Mat bigger = new Mat(capacity * FrameScratch.FACE_SIZE, FrameScratch.FACE_SIZE, opencv_core.CV_8UC1);
+        Mat[] biggerFaces = new Mat[capacity];
+        for (int i = 0; i < capacity; i++) biggerFaces[i] = rows(bigger, i);
+        for (int i = 0; i < size; i++) faces[i].copyTo(biggerFaces[i]);
+
+        for (Mat face : faces) face.close();
+        stack.close();
+        stack = bigger;
+        faces = biggerFaces;
+        labels = Arrays.copyOf(labels, capacity);
+        confidences = Arrays.copyOf(confidences, capacity);
+        trackIds = Arrays.copyOf(trackIds, capacity);
+    }
+
+    // Face i of a stack as a Mat header over its rows
+    private static Mat rows(Mat stack, int i) {
+        return stack.rowRange(i * FrameScratch.FACE_SIZE, (i + 1) * FrameScratch.FACE_SIZE);
+    }
+
+    @Override
+    public void close() {
+        for (Mat face : faces) face.close();
+        stack.close();
+    }
+}
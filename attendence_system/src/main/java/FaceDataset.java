@@ -0,0 +1,327 @@
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.global.opencv_core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Every training sample in one file instead of thousands of JPEGs: 200x200 grayscale faces, already
+// cropped and resized, stored raw so training maps the file and hands OpenCV Mat headers that
+// point straight into the mapping. Nothing is decoded or copied; loading is one sequential read.
+//
+//   int magic 'FDST', int version, int sampleSize, int reserved
+//   records, each a 16-byte header { int type, int person, int length, int reserved }
+//   followed by `length` bytes padded to 16:
+//     PERSON  the UTF-8 name of person number `person` (written before their first sample)
+//     SAMPLE  sampleSize * sampleSize pixels of person number `person`
+//
+// The file is only ever appended to. A record cut short by a crash, or left as zeros or a partial
+// header, is ignored when reading and overwritten by the next append; a bad record with samples
+// after it is damage and fails open().
+public class FaceDataset {
+
+    public static final String DEFAULT_PATH = "faces.fds";
+
+    private static final int MAGIC = 0x46445354; // "FDST"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 16;
+    private static final int PERSON = 1;
+    private static final int SAMPLE = 2;
+    private static final int SAMPLE_SIZE = FrameScratch.FACE_SIZE;
+    private static final int SAMPLE_BYTES = SAMPLE_SIZE * SAMPLE_SIZE;
+    // Files are mapped in pieces of at most this size (a single mapping is limited to 2 GB)
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final String path;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<String> people = new ArrayList<>();
+    private final Map<String, Integer> personByName = new HashMap<>();
+    private int[] sampleSegment = new int[64];
+    private int[] sampleOffset = new int[64];
+    private int[] samplePerson = new int[64];
+    private int size;
+    private long validLength;
+
+    private FaceDataset(String path) {
+        this.path = path;
+    }
+
+    // Maps the file and indexes its records. Returns an empty dataset if the file does not exist.
+    public static FaceDataset open(String path) throws IOException {
+        FaceDataset dataset = new FaceDataset(path);
+        File file = new File(path);
+        if (!file.exists() || file.length() == 0) return dataset;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) throw new IOException(path + " is not a face dataset");
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) throw new IOException(path + " is not a face dataset");
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(path + " has unsupported face dataset version " + header.getInt(4));
+            }
+            if (header.getInt(8) != SAMPLE_SIZE) {
+                throw new IOException(path + " holds " + header.getInt(8) + "px samples, expected " + SAMPLE_SIZE);
+            }
+            dataset.index(channel, length);
+        }
+        return dataset;
+    }
+
+    // Walks the records segment by segment. A segment always ends on a record boundary; the next
+    // one starts at the first record that did not fit.
+    private void index(FileChannel channel, long length) throws IOException {
+        long position = HEADER_BYTES;
+        boolean tail = false;
+        while (position < length && !tail) {
+            long segmentStart = position;
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart,
+                    Math.min(SEGMENT_BYTES, length - segmentStart));
+            int segmentIndex = segments.size();
+            segments.add(segment);
+
+            int offset = 0;
+            while (offset + RECORD_HEADER_BYTES <= segment.capacity()) {
+                int type = segment.getInt(offset);
+                int person = segment.getInt(offset + 4);
+                int recordLength = segment.getInt(offset + 8);
+                long end = offset + RECORD_HEADER_BYTES + padded(recordLength);
+                if (recordLength < 0 || end > segment.capacity()) break;
+
+                int data = offset + RECORD_HEADER_BYTES;
+                if (type == PERSON) {
+                    byte[] name = new byte[recordLength];
+                    segment.get(data, name, 0, recordLength);
+                    addPerson(person, new String(name, StandardCharsets.UTF_8));
+                } else if (type == SAMPLE && recordLength == SAMPLE_BYTES && person >= 0 && person < people.size()) {
+                    addSample(segmentIndex, data, person);
+                } else if (isTornTail(channel, segmentStart + offset, length)) {
+                    tail = true;
+                    break;
+                } else {
+                    throw new IOException(path + " has a bad record at byte " + (segmentStart + offset));
+                }
+                offset = (int) end;
+            }
+
+            position = segmentStart + offset;
+            if (offset == 0 || segmentStart + segment.capacity() == length) break; // torn tail or done
+        }
+        validLength = position;
+    }
+
+    // A crash during an append leaves the record unfinished: less than one sample record of bytes,
+    // or zeros where the file was extended but not written. Anything else after a bad record is damage.
+    private static boolean isTornTail(FileChannel channel, long from, long length) throws IOException {
+        if (length - from < RECORD_HEADER_BYTES + SAMPLE_BYTES) return true;
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        for (long at = from; at < length; ) {
+            buf.clear();
+            int n = channel.read(buf, at);
+            if (n < 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) != 0) return false;
+            }
+            at += n;
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int people() {
+        return people.size();
+    }
+
+    public String person(int person) {
+        return people.get(person);
+    }
+
+    // Person number of sample i (see person())
+    public int personOf(int sample) {
+        return samplePerson[sample];
+    }
+
+    // A Mat header over sample i inside the mapping; no pixels are copied. Valid while this dataset is reachable.
+    public Mat sample(int sample) {
+        BytePointer pixels = new BytePointer(segments.get(sampleSegment[sample]));
+        pixels.position(sampleOffset[sample]);
+        return new Mat(SAMPLE_SIZE, SAMPLE_SIZE, opencv_core.CV_8UC1, pixels);
+    }
+
+    // Reads every page of the mapping in file order, so training does not fault pages in one sample at a time
+    public void preload() {
+        for (MappedByteBuffer segment : segments) segment.load();
+    }
+
+    // All samples as a training set, labelled through the registry (people in name order get new
+    // labels the way TrainModel numbers folders). The Mats point into this dataset.
+    public DatasetLoader.Dataset toTrainingSet(LabelRegistry registry) {
+        String[] sorted = people.toArray(new String[0]);
+        Arrays.sort(sorted);
+        for (String name : sorted) registry.labelFor(name);
+        int[] labelByPerson = new int[people.size()];
+        for (int p = 0; p < labelByPerson.length; p++) labelByPerson[p] = registry.labelFor(people.get(p));
+
+        MatVector images = new MatVector(size);
+        Mat labels = new Mat(size, 1, opencv_core.CV_32SC1);
+        IntBuffer labelsBuf = labels.createBuffer();
+        for (int i = 0; i < size; i++) {
+            Mat header = sample(i);
+            images.put(i, header);
+            header.close();
+            labelsBuf.put(i, labelByPerson[samplePerson[i]]);
+        }
+        return new DatasetLoader.Dataset(images, labels, size);
+    }
+
+    // Packs faces/<person>/*.jpg into a new dataset file, replacing `path` once it is complete
+    public static int pack(File facesDir, String path, DatasetLoader loader) throws IOException, InterruptedException {
+        File[] personFolders = facesDir.listFiles(File::isDirectory);
+        if (personFolders == null) throw new IOException("Not a folder: " + facesDir);
+        Arrays.sort(personFolders);
+
+        File target = new File(path);
+        File tmp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+        Files.deleteIfExists(tmp.toPath());
+        int total = 0;
+        try (Appender appender = appender(tmp.getPath())) {
+            for (File folder : personFolders) {
+                DatasetLoader.Dataset samples = loader.load(DatasetLoader.imagesIn(folder), 0);
+                if (samples == null) continue;
+                for (int i = 0; i < samples.size(); i++) {
+                    Mat sample = samples.images().get(i);
+                    appender.add(folder.getName(), sample);
+                    sample.close();
+                }
+                total += samples.size();
+                samples.images().close();
+                samples.labels().close();
+            }
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return total;
+    }
+
+    // Opens the file for appending, creating it if needed
+    public static Appender appender(String path) throws IOException {
+        return new Appender(path);
+    }
+
+    // Adds samples at the end of a dataset file. add() is synchronized, so capture threads can share one.
+    public static final class Appender implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final Map<String, Integer> personByName;
+        private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        private final ByteBuffer pixels = ByteBuffer.allocateDirect(SAMPLE_BYTES);
+        private final BytePointer pixelsPointer = new BytePointer(pixels);
+        private final Mat staging = new Mat(SAMPLE_SIZE, SAMPLE_SIZE, opencv_core.CV_8UC1, pixelsPointer);
+        private int people;
+
+        private Appender(String path) throws IOException {
+            FaceDataset existing = open(path);
+            this.personByName = new HashMap<>(existing.personByName);
+            this.people = existing.people.size();
+
+            channel = FileChannel.open(new File(path).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (existing.validLength == 0) {
+                ByteBuffer fileHeader = ByteBuffer.allocate(HEADER_BYTES);
+                fileHeader.putInt(MAGIC).putInt(VERSION).putInt(SAMPLE_SIZE).putInt(0).flip();
+                channel.truncate(0);
+                writeFully(fileHeader, 0);
+                channel.position(HEADER_BYTES);
+            } else {
+                // Drop a record a crash may have left half written
+                channel.truncate(existing.validLength);
+                channel.position(existing.validLength);
+            }
+        }
+
+        // Appends one sample of the named person; the face must be 200x200 CV_8UC1
+        public synchronized void add(String name, Mat face) throws IOException {
+            if (face.rows() != SAMPLE_SIZE || face.cols() != SAMPLE_SIZE || face.type() != opencv_core.CV_8UC1) {
+                throw new IllegalArgumentException("Samples must be " + SAMPLE_SIZE + "x" + SAMPLE_SIZE + " grayscale");
+            }
+            Integer person = personByName.get(name);
+            if (person == null) {
+                person = people++;
+                personByName.put(name, person);
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + padded(bytes.length));
+                record.putInt(PERSON).putInt(person).putInt(bytes.length).putInt(0).put(bytes);
+                record.clear();
+                writeFully(record, channel.position());
+            }
+
+            // copyTo also packs a face that is a region of a larger image
+            face.copyTo(staging);
+            header.clear();
+            header.putInt(SAMPLE).putInt(person).putInt(SAMPLE_BYTES).putInt(0).flip();
+            pixels.clear();
+            writeFully(header, channel.position());
+            writeFully(pixels, channel.position());
+        }
+
+        private void writeFully(ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) position += channel.write(buf, position);
+            channel.position(position);
+        }
+
+        // Forces the appended samples to disk
+        public synchronized void flush() throws IOException {
+            channel.force(false);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                channel.force(false);
+                channel.close();
+            } finally {
+                staging.close();
+                pixelsPointer.close();
+            }
+        }
+    }
+
+    private void addPerson(int person, String name) throws IOException {
+        if (person != people.size()) throw new IOException(path + " numbers people out of order");
+        people.add(name);
+        personByName.put(name, person);
+    }
+
+    private void addSample(int segment, int offset, int person) {
+        if (size == sampleSegment.length) {
+            sampleSegment = Arrays.copyOf(sampleSegment, size * 2);
+            sampleOffset = Arrays.copyOf(sampleOffset, size * 2);
+            samplePerson = Arrays.copyOf(samplePerson, size * 2);
+        }
+        sampleSegment[size] = segment;
+        sampleOffset[size] = offset;
+        samplePerson[size] = person;
+        size++;
+    }
+
+    private static int padded(int length) {
+        return (length + 15) & ~15;
+    }
+}
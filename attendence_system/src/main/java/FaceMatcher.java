@@ -0,0 +1,10 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+
+// Puts a label and a distance on a 200x200 grayscale face. A plain LBPHFaceRecognizer fits as
+// recognizer::predict; ShardedRecognizer spreads one model over several.
+@FunctionalInterface
+public interface FaceMatcher {
+
+    // Writes the closest label (or -1) into label[0] and its distance into confidence[0]
+    void predict(Mat face, int[] label, double[] confidence);
+}
@@ -0,0 +1,199 @@
+import java.util.Arrays;
+
+// Follows faces from frame to frame so a student who sits still is not re-identified on every frame.
+//
+// Detections are matched to tracks by overlap (IoU). Between full detections, which run every
+// `fullDetectionEvery` frames, the detector only searches small windows around the known tracks.
+// A track whose recognitions agree on one label `hitsToLock` times in a row is locked to that label
+// and its face is no longer recognized, except once per full detection as a check that the track
+// has not jumped to someone else; a disagreeing check unlocks it.
+//
+// Tracks live in fixed arrays, so tracking allocates nothing per frame. Called by the detector
+// thread (frame updates) and the recognizer threads (recognized), hence synchronized.
+public class FaceTracker {
+
+    public static final int MAX_TRACKS = 128;
+
+    // Detections overlapping a track by at least this much continue it
+    private static final double MIN_IOU = 0.3;
+    // A second detection overlapping an already matched track this much is the same face found twice
+    private static final double DUPLICATE_IOU = 0.5;
+    // Frames a track may go undetected before it is dropped
+    private static final int MAX_MISSED = 5;
+    // Search windows extend a track's box by this fraction of its size on every side
+    private static final double WINDOW_MARGIN = 0.5;
+
+    private final int fullDetectionEvery;
+    private final int hitsToLock;
+    private final double maxDistance;
+
+    private final int[] id = new int[MAX_TRACKS];          // 0 = free slot
+    private final int[] x = new int[MAX_TRACKS];
+    private final int[] y = new int[MAX_TRACKS];
+    private final int[] w = new int[MAX_TRACKS];
+    private final int[] h = new int[MAX_TRACKS];
+    private final int[] missed = new int[MAX_TRACKS];
+    private final int[] label = new int[MAX_TRACKS];       // label being voted for, or the locked one
+    private final int[] hits = new int[MAX_TRACKS];
+    private final boolean[] locked = new boolean[MAX_TRACKS];
+    private final boolean[] matched = new boolean[MAX_TRACKS];
+
+    private int nextId = 1;
+    private int active;
+    private long lastFullDetection = Long.MIN_VALUE;
+
+    // maxDistance: recognitions at or above it are not counted as hits (MarkAttendance uses 80)
+    public FaceTracker(int fullDetectionEvery, int hitsToLock, double maxDistance) {
+        this.fullDetectionEvery = Math.max(1, fullDetectionEvery);
+        this.hitsToLock = Math.max(1, hitsToLock);
+        this.maxDistance = maxDistance;
+    }
+
+    // True if this frame needs a detection over the whole image: every K frames, or when there is
+    // nothing to search around
+    public synchronized boolean fullDetection(long frameNumber) {
+        if (active == 0 || frameNumber - lastFullDetection >= fullDetectionEvery) {
+            lastFullDetection = frameNumber;
+            return true;
+        }
+        return false;
+    }
+
+    // Writes x, y, width, height of one search window per track into out and returns the count.
+    // Windows are clipped to the frame.
+    public synchronized int windows(int[] out, int frameWidth, int frameHeight) {
+        int n = 0;
+        for (int s = 0; s < MAX_TRACKS; s++) {
+            if (id[s] == 0) continue;
+            int mx = (int) (w[s] * WINDOW_MARGIN);
+            int my = (int) (h[s] * WINDOW_MARGIN);
+            int x0 = Math.max(0, x[s] - mx);
+            int y0 = Math.max(0, y[s] - my);
+            int x1 = Math.min(frameWidth, x[s] + w[s] + mx);
+            int y1 = Math.min(frameHeight, y[s] + h[s] + my);
+            if (x1 <= x0 || y1 <= y0) continue;
+            out[n * 4] = x0;
+            out[n * 4 + 1] = y0;
+            out[n * 4 + 2] = x1 - x0;
+            out[n * 4 + 3] = y1 - y0;
+            n++;
+        }
+        return n;
+    }
+
+    public synchronized void beginFrame() {
+        Arrays.fill(matched, false);
+    }
+
+    // Matches one detection to a track (or starts a new one) and returns the track id. Returns -1
+    // when the detection repeats a face already matched this frame, or when every slot is taken.
+    public synchronized int associate(int bx, int by, int bw, int bh) {
+        int best = -1;
+        double bestIou = 0;
+        for (int s = 0; s < MAX_TRACKS; s++) {
+            if (id[s] == 0) continue;
+            double iou = iou(s, bx, by, bw, bh);
+            if (matched[s]) {
+                if (iou >= DUPLICATE_IOU) return -1;
+                continue;
+            }
+            if (iou > bestIou) {
+                bestIou = iou;
+                best = s;
+            }
+        }
+
+        if (best < 0 || bestIou < MIN_IOU) {
+            best = freeSlot();
+            if (best < 0) return -1;
+            id[best] = nextId++;
+            label[best] = -1;
+            hits[best] = 0;
+            locked[best] = false;
+            active++;
+        }
+        x[best] = bx;
+        y[best] = by;
+        w[best] = bw;
+        h[best] = bh;
+        missed[best] = 0;
+        matched[best] = true;
+        return id[best];
+    }
+
+    // Ages the tracks that were not seen this frame and drops the ones gone for too long
+    public synchronized void endFrame() {
+        for (int s = 0; s < MAX_TRACKS; s++) {
+            if (id[s] != 0 && !matched[s] && ++missed[s] > MAX_MISSED) {
+                id[s] = 0;
+                active--;
+            }
+        }
+    }
+
+    // Whether the face of this track should go to the recognizer. Locked tracks are only re-checked
+    // on full-detection frames.
+    public synchronized boolean needsRecognition(int trackId, boolean fullFrame) {
+        int s = slotOf(trackId);
+        return s >= 0 && (!locked[s] || fullFrame);
+    }
+
+    // Feeds a recognizer result back into its track
+    public synchronized void recognized(int trackId, int recognizedLabel, double distance) {
+        int s = slotOf(trackId);
+        if (s < 0) return; // the track ended while its face was queued
+
+        boolean confident = recognizedLabel >= 0 && distance < maxDistance;
+        if (locked[s]) {
+            if (!confident || recognizedLabel != label[s]) {
+                locked[s] = false;
+                label[s] = -1;
+                hits[s] = 0;
+            }
+            return;
+        }
+        if (!confident) return;
+        if (recognizedLabel == label[s]) {
+            hits[s]++;
+        } else {
+            label[s] = recognizedLabel;
+            hits[s] = 1;
+        }
+        if (hits[s] >= hitsToLock) locked[s] = true;
+    }
+
+    public synchronized int tracks() {
+        return active;
+    }
+
+    public synchronized int lockedTracks() {
+        int n = 0;
+        for (int s = 0; s < MAX_TRACKS; s++) {
+            if (id[s] != 0 && locked[s]) n++;
+        }
+        return n;
+    }
+
+    private int slotOf(int trackId) {
+        if (trackId <= 0) return -1;
+        for (int s = 0; s < MAX_TRACKS; s++) {
+            if (id[s] == trackId) return s;
+        }
+        return -1;
+    }
+
+    private int freeSlot() {
+        for (int s = 0; s < MAX_TRACKS; s++) {
+            if (id[s] == 0) return s;
+        }
+        return -1;
+    }
+
+    private double iou(int s, int bx, int by, int bw, int bh) {
+        int ix = Math.min(x[s] + w[s], bx + bw) - Math.max(x[s], bx);
+        int iy = Math.min(y[s] + h[s], by + bh) - Math.max(y[s], by);
+        if (ix <= 0 || iy <= 0) return 0;
+        double intersection = (double) ix * iy;
+        return intersection / ((double) w[s] * h[s] + (double) bw * bh - intersection);
+    }
+}
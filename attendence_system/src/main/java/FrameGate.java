@@ -0,0 +1,173 @@
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cheap check in front of face detection, so an empty room or a static scene does not keep the
+// detector busy at camera speed. Every frame is shrunk to 160x120 gray and scored:
+//   change     mean absolute difference from the last frame that was let through, in gray levels
+//   sharpness  variance of the Laplacian; motion blur and a camera out of focus score low
+//   exposure   mean brightness; a covered lens or a frame blown out by the sun is useless
+// A sharp, well exposed frame that changed is let through. Anything else is idle and only let
+// through once the idle interval has passed; that interval starts at -Dgate.idleMinMs and doubles
+// with every idle frame let through up to -Dgate.idleMaxMs, and goes back to the minimum as soon as
+// the scene changes. So a static room is searched a few times and then every couple of seconds,
+// and wrongly tuned thresholds slow detection down but never stop it.
+//
+//   -Dgate.enabled=false      no gate
+//   -Dgate.minChange=1.5      gray levels
+//   -Dgate.minSharpness=50    Laplacian variance at 160x120 (a sharp classroom scores in the hundreds)
+//   -Dgate.minBrightness=20, -Dgate.maxBrightness=235
+//   -Dgate.idleMinMs=250, -Dgate.idleMaxMs=2000
+//
+// Not thread-safe: one per frame reader. Allocates nothing per frame.
+public class FrameGate implements AutoCloseable {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    private final double minChange;
+    private final double minSharpness;
+    private final double minBrightness;
+    private final double maxBrightness;
+    private final long idleMinNanos;
+    private final long idleMaxNanos;
+
+    private final Size size = new Size(WIDTH, HEIGHT);
+    private final Mat resized = new Mat();
+    private final Mat small = new Mat();
+    private final Mat reference = new Mat();
+    private final Mat diff = new Mat();
+    private final Mat laplacian = new Mat();
+    private final Mat mean = new Mat(1, 1, opencv_core.CV_64F);
+    private final Mat stddev = new Mat(1, 1, opencv_core.CV_64F);
+    private final DoubleIndexer meanIndexer = mean.createIndexer();
+    private final DoubleIndexer stddevIndexer = stddev.createIndexer();
+
+    private long lastPassNanos;
+    private long idleNanos;
+    private boolean hasReference;
+    private double lastChange;
+    private double lastSharpness;
+    private double lastBrightness;
+
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong blurred = new AtomicLong();
+    private final AtomicLong badlyExposed = new AtomicLong();
+
+    public FrameGate(double minChange, double minSharpness, double minBrightness, double maxBrightness,
+                     long idleMinMs, long idleMaxMs) {
+        this.minChange = minChange;
+        this.minSharpness = minSharpness;
+        this.minBrightness = minBrightness;
+        this.maxBrightness = maxBrightness;
+        this.idleMinNanos = Math.max(0, idleMinMs) * 1_000_000;
+        this.idleMaxNanos = Math.max(idleMinMs, idleMaxMs) * 1_000_000;
+        this.idleNanos = idleMinNanos;
+    }
+
+    // The gate -Dgate.* describes, or null with -Dgate.enabled=false
+    public static FrameGate fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("gate.enabled", "true"))) return null;
+        return new FrameGate(
+                Double.parseDouble(System.getProperty("gate.minChange", "1.5")),
+                Double.parseDouble(System.getProperty("gate.minSharpness", "50")),
+                Double.parseDouble(System.getProperty("gate.minBrightness", "20")),
+                Double.parseDouble(System.getProperty("gate.maxBrightness", "235")),
+                Long.getLong("gate.idleMinMs", 250),
+                Long.getLong("gate.idleMaxMs", 2000));
+    }
+
+    // True if the frame (BGR or gray) should go on to detection
+    public boolean accept(Mat frame) {
+        if (frame.channels() == 1) {
+            opencv_imgproc.resize(frame, small, size, 0, 0, opencv_imgproc.INTER_AREA);
+        } else {
+            opencv_imgproc.resize(frame, resized, size, 0, 0, opencv_imgproc.INTER_AREA);
+            opencv_imgproc.cvtColor(resized, small, opencv_imgproc.COLOR_BGR2GRAY);
+        }
+
+        opencv_core.meanStdDev(small, mean, stddev);
+        lastBrightness = meanIndexer.get(0);
+        opencv_imgproc.Laplacian(small, laplacian, opencv_core.CV_16S);
+        opencv_core.meanStdDev(laplacian, mean, stddev);
+        double sd = stddevIndexer.get(0);
+        lastSharpness = sd * sd;
+        if (hasReference) {
+            opencv_core.absdiff(small, reference, diff);
+            opencv_core.meanStdDev(diff, mean, stddev);
+            lastChange = meanIndexer.get(0);
+        } else {
+            lastChange = Double.MAX_VALUE;
+        }
+
+        boolean exposed = lastBrightness >= minBrightness && lastBrightness <= maxBrightness;
+        boolean sharp = lastSharpness >= minSharpness;
+        boolean changed = lastChange >= minChange;
+        long now = System.nanoTime();
+
+        if (exposed && sharp && changed) {
+            idleNanos = idleMinNanos;
+        } else if (now - lastPassNanos >= idleNanos) {
+            idleNanos = Math.min(idleNanos * 2, idleMaxNanos);
+        } else {
+            if (!exposed) badlyExposed.incrementAndGet();
+            else if (!sharp) blurred.incrementAndGet();
+            else unchanged.incrementAndGet();
+            return false;
+        }
+
+        small.copyTo(reference);
+        hasReference = true;
+        lastPassNanos = now;
+        passed.incrementAndGet();
+        return true;
+    }
+
+    public double lastChange() {
+        return lastChange;
+    }
+
+    public double lastSharpness() {
+        return lastSharpness;
+    }
+
+    public double lastBrightness() {
+        return lastBrightness;
+    }
+
+    public long passed() { return passed.get(); }
+
+    public long skipped() { return unchanged.get() + blurred.get() + badlyExposed.get(); }
+
+    // e.g. "412 of 3600 frames detected (2950 unchanged, 200 blurred, 38 badly exposed)"
+    public String summary() {
+        return passed() + " of " + (passed() + skipped()) + " frames detected (" + unchanged.get() + " unchanged, "
+                + blurred.get() + " blurred, " + badlyExposed.get() + " badly exposed)";
+    }
+
+    public void registerWith(Metrics metrics) {
+        metrics.counter("gate.passed", passed::get);
+        metrics.counter("gate.unchanged", unchanged::get);
+        metrics.counter("gate.blurred", blurred::get);
+        metrics.counter("gate.badlyExposed", badlyExposed::get);
+    }
+
+    @Override
+    public void close() {
+        meanIndexer.release();
+        stddevIndexer.release();
+        mean.close();
+        stddev.close();
+        laplacian.close();
+        diff.close();
+        reference.close();
+        small.close();
+        resized.close();
+        size.close();
+    }
+}
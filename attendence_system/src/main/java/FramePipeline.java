@@ -0,0 +1,434 @@
+import org.bytedeco.opencv.opencv_core.*;
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Splits the attendance loop into grab -> detect -> recognize stages that run on their own threads.
+// Stages are connected by bounded queues; when a queue is full the oldest entry is dropped, so a
+// crowded frame never stops the camera from being read.
+//
+// The faces of one frame travel together as a FaceBatch and each recognizer predicts the whole batch
+// in one BatchRecognizer call. Frames and batches are pooled and allocated up front, and every
+// detector has its own FrameScratch, so in steady state the stages allocate nothing per frame (see
+// allocations()).
+//
+// With a FaceTracker the pipeline runs a single detector (tracking needs frames in order), which
+// only searches the whole frame every few frames and otherwise looks around the tracked faces, and
+// faces of tracks already locked to a student are not recognized again.
+//
+// With a DetectorPool the detectors borrow a cascade from it for each frame instead of loading their
+// own, so several pipelines share one detection budget.
+//
+// With a FrameGate the grabber drops frames that did not change or are unusable before they are
+// converted or searched, so an idle classroom costs little more than reading the camera.
+//
+// Every stage is timed into a Histogram and the counters and queue depths can be published with
+// registerWith(Metrics).
+public class FramePipeline {
+
+    // One recognizer result, handed back to the thread that owns the attendance logic.
+    // trackId is -1 without a tracker.
+    public record Recognition(long frameNumber, int trackId, int label, double confidence) {}
+
+    private final FrameSource source;
+    private final String cascadePath;
+    private final DetectorPool detectorPool;  // null: every detector loads cascadePath
+    private final DetectionProfile profile;
+    private final FaceMatcher recognizer;
+    private final FaceTracker tracker;
+    private final FrameGate gate;
+    private final int detectorThreads;
+    private final int recognizerThreads;
+
+    private final BlockingQueue<Slot> frames;
+    private final BlockingQueue<FaceBatch> faces;
+    private final BlockingQueue<Recognition> results;
+    private final BlockingQueue<Slot> freeFrames;
+    private final BlockingQueue<FaceBatch> freeBatches;
+
+    private final AtomicLong grabbedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong droppedFaces = new AtomicLong();
+    private final AtomicLong recognizedFaces = new AtomicLong();
+    private final AtomicLong droppedResults = new AtomicLong();
+    private final AtomicLong fullDetections = new AtomicLong();
+    private final AtomicLong windowDetections = new AtomicLong();
+    private final AtomicLong skippedFaces = new AtomicLong();
+    private final Histogram grabTime = Histogram.latency();
+    private final Histogram convertTime = Histogram.latency();
+    private final Histogram detectTime = Histogram.latency();
+    private final Histogram predictTime = Histogram.latency();
+    private final Histogram confidences = new Histogram(10, "");
+    private final AllocationCounter allocations = new AllocationCounter(Long.getLong("alloc.warmup", 100));
+
+    // Frames and face batches that were queued but not yet fully processed or dropped
+    private final AtomicLong pending = new AtomicLong();
+
+    // Drop handlers are created once; a lambda per offer would be garbage on every frame
+    private final Consumer<Slot> dropFrame = this::dropFrame;
+    private final Consumer<FaceBatch> dropBatch = this::dropBatch;
+    private final Consumer<Recognition> dropResult = dropped -> droppedResults.incrementAndGet();
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+    private volatile boolean sourceFinished;
+
+    // A reusable frame buffer and the number of the frame in it
+    private static final class Slot {
+        final Mat image;
+        long frameNumber;
+
+        Slot(Mat image) {
+            this.image = image;
+        }
+    }
+
+    public FramePipeline(FrameSource source, String cascadePath, FaceMatcher recognizer,
+                         int detectorThreads, int recognizerThreads,
+                         int frameQueueDepth, int faceQueueDepth, int resultQueueDepth) {
+        this(source, cascadePath, DetectionProfile.named("default"), recognizer, null, null,
+                detectorThreads, recognizerThreads, frameQueueDepth, faceQueueDepth, resultQueueDepth);
+    }
+
+    // tracker may be null; with one, detectorThreads is ignored and a single detector runs.
+    // gate may be null; the pipeline closes it in stop(). faceQueueDepth counts frames' worth of faces.
+    public FramePipeline(FrameSource source, String cascadePath, DetectionProfile profile,
+                         FaceMatcher recognizer, FaceTracker tracker, FrameGate gate,
+                         int detectorThreads, int recognizerThreads,
+                         int frameQueueDepth, int faceQueueDepth, int resultQueueDepth) {
+        this(source, cascadePath, null, profile, recognizer, tracker, gate,
+                detectorThreads, recognizerThreads, frameQueueDepth, faceQueueDepth, resultQueueDepth);
+    }
+
+    // Detects with cascades borrowed from the pool, which the caller keeps open until after stop()
+    public FramePipeline(FrameSource source, DetectorPool detectorPool, DetectionProfile profile,
+                         FaceMatcher recognizer, FaceTracker tracker, FrameGate gate,
+                         int detectorThreads, int recognizerThreads,
+                         int frameQueueDepth, int faceQueueDepth, int resultQueueDepth) {
+        this(source, null, detectorPool, profile, recognizer, tracker, gate,
+                detectorThreads, recognizerThreads, frameQueueDepth, faceQueueDepth, resultQueueDepth);
+    }
+
+    private FramePipeline(FrameSource source, String cascadePath, DetectorPool detectorPool, DetectionProfile profile,
+                          FaceMatcher recognizer, FaceTracker tracker, FrameGate gate,
+                          int detectorThreads, int recognizerThreads,
+                          int frameQueueDepth, int faceQueueDepth, int resultQueueDepth) {
+        this.source = source;
+        this.cascadePath = cascadePath;
+        this.detectorPool = detectorPool;
+        this.profile = profile;
+        this.recognizer = recognizer;
+        this.tracker = tracker;
+        this.gate = gate;
+        this.detectorThreads = tracker != null ? 1 : Math.max(1, detectorThreads);
+        this.recognizerThreads = Math.max(1, recognizerThreads);
+        this.frames = new ArrayBlockingQueue<>(Math.max(1, frameQueueDepth));
+        this.faces = new ArrayBlockingQueue<>(Math.max(1, faceQueueDepth));
+        this.results = new ArrayBlockingQueue<>(Math.max(1, resultQueueDepth));
+
+        // Enough slots to fill every queue and keep every worker busy at the same time
+        int frameSlots = frames.remainingCapacity() + this.detectorThreads + 1;
+        int batches = faces.remainingCapacity() + this.detectorThreads + this.recognizerThreads;
+        this.freeFrames = new ArrayBlockingQueue<>(frameSlots);
+        this.freeBatches = new ArrayBlockingQueue<>(batches);
+        for (int i = 0; i < frameSlots; i++) freeFrames.add(new Slot(new Mat()));
+        for (int i = 0; i < batches; i++) freeBatches.add(new FaceBatch(8));
+    }
+
+    public void start() {
+        running = true;
+        threads.add(new Thread(this::grabLoop, "grabber"));
+        for (int i = 0; i < detectorThreads; i++) {
+            threads.add(new Thread(this::detectLoop, "detector-" + (i + 1)));
+        }
+        for (int i = 0; i < recognizerThreads; i++) {
+            threads.add(new Thread(this::recognizeLoop, "recognizer-" + (i + 1)));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // Waits up to the given time for the next recognizer result, or returns null
+    public Recognition poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return results.poll(timeout, unit);
+    }
+
+    // True once a finite source has been read to the end and every queued result was handed out
+    public boolean isDone() {
+        return sourceFinished && pending.get() == 0 && results.isEmpty();
+    }
+
+    public void stop() {
+        running = false;
+        for (Thread t : threads) t.interrupt();
+        for (Thread t : threads) {
+            try {
+                t.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+
+        Slot slot;
+        while ((slot = frames.poll()) != null) slot.image.close();
+        while ((slot = freeFrames.poll()) != null) slot.image.close();
+        FaceBatch batch;
+        while ((batch = faces.poll()) != null) batch.close();
+        while ((batch = freeBatches.poll()) != null) batch.close();
+        if (gate != null) gate.close();
+    }
+
+    public long grabbedFrames() { return grabbedFrames.get(); }
+
+    public long droppedFrames() { return droppedFrames.get(); }
+
+    public long droppedFaces() { return droppedFaces.get(); }
+
+    public long droppedResults() { return droppedResults.get(); }
+
+    // null without a gate
+    public FrameGate gate() { return gate; }
+
+    // Frames searched whole, and frames only searched around tracked faces
+    public long fullDetections() { return fullDetections.get(); }
+
+    public long windowDetections() { return windowDetections.get(); }
+
+    // Faces not sent to the recognizer because their track is already locked to a student
+    public long skippedFaces() { return skippedFaces.get(); }
+
+    public AllocationCounter allocations() { return allocations; }
+
+    // Stage latencies, the confidence of every prediction, frame and face counts and queue depths
+    public void registerWith(Metrics metrics) {
+        metrics.histogram("grab", grabTime);
+        metrics.histogram("cvtColor", convertTime);
+        metrics.histogram("detect", detectTime);
+        metrics.histogram("predict", predictTime); // per frame's batch
+        metrics.histogram("confidence", confidences);
+        metrics.counter("frames", grabbedFrames::get);
+        metrics.counter("faces", recognizedFaces::get);
+        metrics.counter("dropped.frames", droppedFrames::get);
+        metrics.counter("dropped.faces", droppedFaces::get);
+        metrics.counter("dropped.results", droppedResults::get);
+        metrics.counter("skipped.faces", skippedFaces::get);
+        metrics.gauge("queue.frames", frames::size);
+        metrics.gauge("queue.faces", faces::size);
+        metrics.gauge("queue.results", results::size);
+        if (gate != null) gate.registerWith(metrics);
+    }
+
+    private void grabLoop() {
+        long frameNumber = 0;
+        try {
+            while (running) {
+                // A free buffer, else the oldest queued frame (dropped), else wait for a detector to hand one back
+                Slot slot = freeFrames.poll();
+                if (slot == null && (slot = frames.poll()) != null) {
+                    droppedFrames.incrementAndGet();
+                    pending.decrementAndGet();
+                }
+                if (slot == null && (slot = freeFrames.poll(100, TimeUnit.MILLISECONDS)) == null) continue;
+
+                long start = System.nanoTime();
+                boolean read = source.read(slot.image);
+                grabTime.recordSince(start);
+                if (!read) {
+                    freeFrames.offer(slot);
+                    if (source.isFinished()) break;
+                    continue;
+                }
+                grabbedFrames.incrementAndGet();
+                if (gate != null && !gate.accept(slot.image)) {
+                    freeFrames.offer(slot);
+                    continue;
+                }
+                slot.frameNumber = frameNumber++;
+                pending.incrementAndGet();
+                offerDropOldest(frames, slot, dropFrame);
+            }
+        } catch (InterruptedException ignored) {
+            // stop() interrupts the workers
+        }
+        sourceFinished = true;
+    }
+
+    private void detectLoop() {
+        // CascadeClassifier is not safe to share between threads, so every detector loads its own
+        // or borrows one from the pool for each frame
+        CascadeClassifier ownDetector = detectorPool == null ? new CascadeClassifier(cascadePath) : null;
+        FrameScratch scratch = new FrameScratch();
+        int[] windows = new int[FaceTracker.MAX_TRACKS * 4];
+
+        try {
+            while (running) {
+                Slot frame = frames.take();
+                long mark = allocations.begin();
+                FaceBatch batch = freeBatch();
+
+                long start = System.nanoTime();
+                opencv_imgproc.cvtColor(frame.image, scratch.gray, opencv_imgproc.COLOR_BGR2GRAY);
+                start = convertTime.recordSince(start);
+                batch.frameNumber = frame.frameNumber;
+                freeFrames.offer(frame);
+
+                CascadeClassifier faceDetector = ownDetector;
+                if (faceDetector == null) {
+                    try {
+                        faceDetector = detectorPool.acquire();
+                    } catch (InterruptedException e) {
+                        freeBatches.offer(batch);
+                        throw e;
+                    }
+                    start = System.nanoTime(); // the wait is timed by the pool
+                }
+                try {
+                    if (tracker == null) {
+                        profile.detect(faceDetector, scratch);
+                        int count = scratch.faceCount();
+                        for (int i = 0; i < count; i++) scratch.cropFace(i, batch.add(-1));
+                    } else {
+                        detectTracked(faceDetector, scratch, windows, batch);
+                    }
+                } finally {
+                    if (ownDetector == null) detectorPool.release(faceDetector);
+                }
+                detectTime.recordSince(start);
+
+                if (batch.size() > 0) {
+                    pending.incrementAndGet();
+                    offerDropOldest(faces, batch, dropBatch);
+                } else {
+                    freeBatches.offer(batch);
+                }
+
+                allocations.end(mark, scratch.takeWrapperBytes());
+                pending.decrementAndGet();
+            }
+        } catch (InterruptedException ignored) {
+            // stop() interrupts the workers
+        } finally {
+            scratch.close();
+            if (ownDetector != null) ownDetector.close();
+        }
+    }
+
+    // One frame with the tracker: the whole frame every few frames, otherwise only the windows
+    // around known tracks. Faces of locked tracks are skipped.
+    private void detectTracked(CascadeClassifier faceDetector, FrameScratch scratch, int[] windows, FaceBatch batch) {
+        boolean full = tracker.fullDetection(batch.frameNumber);
+        tracker.beginFrame();
+        if (full) {
+            fullDetections.incrementAndGet();
+            profile.detect(faceDetector, scratch);
+            int count = scratch.faceCount();
+            for (int i = 0; i < count; i++) {
+                trackFace(scratch, scratch.x(i), scratch.y(i), scratch.width(i), scratch.height(i), batch, true);
+            }
+        } else {
+            windowDetections.incrementAndGet();
+            int n = tracker.windows(windows, scratch.gray.cols(), scratch.gray.rows());
+            for (int k = 0; k < n; k++) {
+                int wx = windows[k * 4];
+                int wy = windows[k * 4 + 1];
+                profile.detectWindow(faceDetector, scratch,
+                        scratch.copyWindow(wx, wy, windows[k * 4 + 2], windows[k * 4 + 3]));
+                int count = scratch.faceCount();
+                for (int i = 0; i < count; i++) {
+                    trackFace(scratch, wx + scratch.x(i), wy + scratch.y(i), scratch.width(i), scratch.height(i),
+                            batch, false);
+                }
+            }
+        }
+        tracker.endFrame();
+    }
+
+    private void trackFace(FrameScratch scratch, int x, int y, int width, int height, FaceBatch batch, boolean full) {
+        int trackId = tracker.associate(x, y, width, height);
+        if (trackId < 0 || !tracker.needsRecognition(trackId, full)) {
+            skippedFaces.incrementAndGet();
+            return;
+        }
+        scratch.cropFace(x, y, width, height, batch.add(trackId));
+    }
+
+    // A free batch, else the oldest queued one (its faces are dropped), else wait for a recognizer to hand one back
+    private FaceBatch freeBatch() throws InterruptedException {
+        FaceBatch batch = freeBatches.poll();
+        if (batch == null && (batch = faces.poll()) != null) {
+            droppedFaces.addAndGet(batch.size());
+            pending.decrementAndGet();
+        }
+        if (batch == null) batch = freeBatches.take();
+        batch.clear();
+        return batch;
+    }
+
+    private void recognizeLoop() {
+        BatchRecognizer batchRecognizer = BatchRecognizer.fromSystemProperties(recognizer);
+        try {
+            while (running) {
+                FaceBatch batch = faces.take();
+                long mark = allocations.begin();
+                long start = System.nanoTime();
+                batchRecognizer.predict(batch);
+                predictTime.recordSince(start);
+
+                int n = batch.size();
+                for (int i = 0; i < n; i++) {
+                    int label = batch.label(i);
+                    double confidence = batch.confidence(i);
+                    int trackId = batch.trackId(i);
+                    confidences.record(confidence);
+                    if (tracker != null && trackId >= 0) tracker.recognized(trackId, label, confidence);
+                }
+                // The result records belong to the consumer; they are the per-face objects of this stage
+                long published = AllocationCounter.threadBytes();
+                for (int i = 0; i < n; i++) {
+                    offerDropOldest(results, new Recognition(batch.frameNumber, batch.trackId(i), batch.label(i),
+                            batch.confidence(i)), dropResult);
+                }
+                long resultBytes = AllocationCounter.threadBytes() - published;
+                recognizedFaces.addAndGet(n);
+                freeBatches.offer(batch);
+                allocations.end(mark, resultBytes);
+                pending.decrementAndGet();
+            }
+        } catch (InterruptedException ignored) {
+            // stop() interrupts the workers
+        } finally {
+            batchRecognizer.close();
+        }
+    }
+
+    private void dropFrame(Slot slot) {
+        freeFrames.offer(slot);
+        droppedFrames.incrementAndGet();
+        pending.decrementAndGet();
+    }
+
+    private void dropBatch(FaceBatch batch) {
+        droppedFaces.addAndGet(batch.size());
+        freeBatches.offer(batch);
+        pending.decrementAndGet();
+    }
+
+    // Adds the item, evicting the oldest queued entries while the queue is full
+    private static <T> void offerDropOldest(BlockingQueue<T> queue, T item, Consumer<T> onDrop) {
+        while (!queue.offer(item)) {
+            T old = queue.poll();
+            if (old != null) onDrop.accept(old);
+        }
+    }
+}
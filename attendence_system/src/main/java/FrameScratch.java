@@ -0,0 +1,185 @@
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+
+import java.util.Arrays;
+import org.bytedeco.opencv.opencv_core.*;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+// Per-thread buffers for detecting and recognizing the faces of one frame. Everything is allocated
+// once and reused, so once the buffers have grown to the camera's frame size a frame costs no new
+// native objects and no Java garbage, except the wrapper RectVector.get hands back for every face
+// rect read out of a detection (tallied in wrapperBytes, see AllocationCounter).
+// Not thread-safe: give every worker thread its own.
+public class FrameScratch implements AutoCloseable {
+
+    // Training images are resized to this, so faces are scaled to it before predict
+    public static final int FACE_SIZE = 200;
+
+    public final Mat gray = new Mat();
+    public final RectVector rects = new RectVector();
+    public final Mat face = new Mat(FACE_SIZE, FACE_SIZE, opencv_core.CV_8UC1);
+    // A part of `gray` copied out for detection around a tracked face or in a region (see copyWindow)
+    public final Mat window = new Mat();
+
+    // DetectionProfile's buffers: the downscaled image, the raw rects of one region and the size limits
+    public final Mat small = new Mat();
+    public final RectVector regionRects = new RectVector();
+    public final Size minSize = new Size(0, 0);
+    public final Size maxSize = new Size(0, 0);
+    public final Size noSize = new Size(0, 0);
+    public final int[] label = new int[1];
+    public final double[] confidence = new double[1];
+
+    // Reusable drawing state for preview windows
+    public final Point textOrigin = new Point(0, 0);
+    public final StringBuilder text = new StringBuilder(64);
+    private final BytePointer textBuffer = new BytePointer(256);
+
+    private final Mat transform = new Mat(2, 3, opencv_core.CV_64F, Scalar.all(0));
+    private final DoubleIndexer transformIndexer = transform.createIndexer();
+    private final Size faceSize = new Size(FACE_SIZE, FACE_SIZE);
+    private final Size windowSize = new Size(0, 0);
+    private final Scalar border = Scalar.all(0);
+    private final Rect box = new Rect();
+
+    // x, y, width, height of every face of the last detection, copied out of `rects` by loadRects()
+    private int[] boxes = new int[4 * 16];
+    private int boxCount;
+    private long wrapperBytes;
+
+    // Copies the rects of the last detection out of `rects`; DetectionProfile calls it after detecting
+    public void loadRects() {
+        long before = AllocationCounter.threadBytes();
+        int n = (int) rects.size();
+        if (boxes.length < 4 * n) boxes = Arrays.copyOf(boxes, 4 * n);
+        for (int i = 0; i < n; i++) {
+            Rect r = rects.get(i);
+            boxes[4 * i] = r.x();
+            boxes[4 * i + 1] = r.y();
+            boxes[4 * i + 2] = r.width();
+            boxes[4 * i + 3] = r.height();
+        }
+        boxCount = n;
+        wrapperBytes += AllocationCounter.threadBytes() - before;
+    }
+
+    public int faceCount() {
+        return boxCount;
+    }
+
+    public int x(int i) { return boxes[4 * i]; }
+
+    public int y(int i) { return boxes[4 * i + 1]; }
+
+    public int width(int i) { return boxes[4 * i + 2]; }
+
+    public int height(int i) { return boxes[4 * i + 3]; }
+
+    // Face i of the last detection as a Rect, e.g. for drawing. The object is reused by the next call.
+    public Rect rect(int i) {
+        return box(x(i), y(i), width(i), height(i));
+    }
+
+    // A reused Rect set to the given box, e.g. to push_back into a RectVector (which copies it)
+    public Rect box(int x, int y, int width, int height) {
+        return box.x(x).y(y).width(width).height(height);
+    }
+
+    // Rect i of `regionRects`, as a new JavaCPP wrapper (tallied in wrapperBytes)
+    public Rect regionRect(int i) {
+        long before = AllocationCounter.threadBytes();
+        Rect r = regionRects.get(i);
+        wrapperBytes += AllocationCounter.threadBytes() - before;
+        return r;
+    }
+
+    // Heap bytes of rect wrappers since the last call, for AllocationCounter.end(mark, perFaceBytes)
+    public long takeWrapperBytes() {
+        long bytes = wrapperBytes;
+        wrapperBytes = 0;
+        return bytes;
+    }
+
+    // Copies face i out of `gray`, scaled to FACE_SIZE x FACE_SIZE, into dst. Uses a warp with a reused
+    // matrix instead of an ROI header + resize, which would allocate two native objects per face.
+    public void cropFace(int i, Mat dst) {
+        cropFace(x(i), y(i), width(i), height(i), dst);
+    }
+
+    // As cropFace(i, dst), for a face given by its box in `gray`
+    public void cropFace(int x, int y, int width, int height, Mat dst) {
+        double sx = width / (double) FACE_SIZE;
+        double sy = height / (double) FACE_SIZE;
+
+        // dst(x, y) = gray(sx * x + ox, sy * y + oy), with pixel centres lined up the way resize() does
+        transformIndexer.put(0, 0, sx);
+        transformIndexer.put(0, 2, x + 0.5 * sx - 0.5);
+        transformIndexer.put(1, 1, sy);
+        transformIndexer.put(1, 2, y + 0.5 * sy - 0.5);
+
+        opencv_imgproc.warpAffine(gray, dst, transform, faceSize,
+                opencv_imgproc.INTER_LINEAR | opencv_imgproc.WARP_INVERSE_MAP, opencv_core.BORDER_REPLICATE, border);
+    }
+
+    // Copies the given box of `gray` into `window` (same warp trick: a pure translation, no ROI header)
+    public Mat copyWindow(int x, int y, int width, int height) {
+        transformIndexer.put(0, 0, 1.0);
+        transformIndexer.put(0, 2, x);
+        transformIndexer.put(1, 1, 1.0);
+        transformIndexer.put(1, 2, y);
+        windowSize.width(width).height(height);
+
+        opencv_imgproc.warpAffine(gray, window, transform, windowSize,
+                opencv_imgproc.INTER_NEAREST | opencv_imgproc.WARP_INVERSE_MAP, opencv_core.BORDER_REPLICATE, border);
+        return window;
+    }
+
+    // Crops face i into this scratch's own `face` buffer
+    public Mat cropFace(int i) {
+        cropFace(i, face);
+        return face;
+    }
+
+    // Copies `text` into a reused native string for putText (ASCII only; other characters become '?')
+    public BytePointer nativeText() {
+        int n = Math.min(text.length(), (int) textBuffer.capacity() - 1);
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            textBuffer.put(i, c < 128 ? (byte) c : (byte) '?');
+        }
+        textBuffer.put(n, (byte) 0);
+        return textBuffer;
+    }
+
+    // Appends value with one decimal, like String.format("%.1f") but without the garbage
+    public static void appendOneDecimal(StringBuilder sb, double value) {
+        long tenths = Math.round(value * 10);
+        if (tenths < 0) {
+            sb.append('-');
+            tenths = -tenths;
+        }
+        sb.append(tenths / 10).append('.').append(tenths % 10);
+    }
+
+    @Override
+    public void close() {
+        transformIndexer.release();
+        transform.close();
+        faceSize.close();
+        windowSize.close();
+        window.close();
+        small.close();
+        regionRects.close();
+        minSize.close();
+        maxSize.close();
+        noSize.close();
+        border.close();
+        box.close();
+        textOrigin.close();
+        textBuffer.close();
+        face.close();
+        rects.close();
+        gray.close();
+    }
+}
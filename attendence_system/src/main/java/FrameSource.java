@@ -0,0 +1,52 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.io.File;
+
+// Where frames come from: a webcam, a recorded video, a folder of images or generated test frames.
+// Replay sources are finite and can be read as fast as the consumer can keep up.
+public interface FrameSource extends AutoCloseable {
+
+    // Reads the next frame into the given Mat. Returns false if no frame was available this time.
+    boolean read(Mat frame);
+
+    // Moves past the next frame without needing its pixels (batch processing samples every Nth frame).
+    // Sources that can skip without decoding override this; the default reads into the given Mat.
+    default boolean skip(Mat scratch) {
+        return read(scratch);
+    }
+
+    // True once a finite source has no frames left. A webcam never finishes.
+    boolean isFinished();
+
+    @Override
+    void close();
+
+    // "-Dframes.fast=true" skips imshow/waitKey pacing so recordings are processed at full speed
+    static boolean fastMode() {
+        return Boolean.getBoolean("frames.fast");
+    }
+
+    // Opens a source from a spec string:
+    //   webcam:0                              camera index 0
+    //   video:lecture.mp4                     a recorded video file
+    //   images:frames/                        every .jpg/.jpeg/.png in the folder, in name order
+    //   synthetic:640x480,frames=500,faces=8  generated frames (see SyntheticFrameSource)
+    // A bare number, video file or folder is also accepted.
+    static FrameSource open(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = colon > 1 ? spec.substring(0, colon) : "";
+        String value = colon > 1 ? spec.substring(colon + 1) : spec;
+
+        return switch (kind) {
+            case "webcam" -> VideoFrameSource.webcam(Integer.parseInt(value));
+            case "video" -> VideoFrameSource.file(value);
+            case "images" -> new ImageDirectoryFrameSource(new File(value));
+            case "synthetic" -> SyntheticFrameSource.fromSpec(value);
+            default -> {
+                if (value.matches("\\d+")) yield VideoFrameSource.webcam(Integer.parseInt(value));
+                if (new File(value).isDirectory()) yield new ImageDirectoryFrameSource(new File(value));
+                yield VideoFrameSource.file(value);
+            }
+        };
+    }
+}
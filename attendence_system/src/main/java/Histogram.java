@@ -0,0 +1,109 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Distribution of non-negative values, cheap enough to record on every frame: one bucket
+// increment, no locks and no allocation, safe from any number of threads.
+//
+// Buckets are log-linear: values below 16 get a bucket each, above that every power of two is
+// split into 8 buckets, so a percentile is off by at most 1/8 of its value whatever the range
+// (nanoseconds to minutes fit in ~500 buckets).
+//
+// Values are recorded as longs in a fine raw unit and reported divided by rawPerUnit, e.g.
+// latency() records nanoseconds and reports milliseconds.
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR = SUB_BUCKETS * 2;
+    private static final int BUCKETS = (63 - SUB_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final double rawPerUnit;
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram(double rawPerUnit, String unit) {
+        this.rawPerUnit = rawPerUnit;
+        this.unit = unit;
+    }
+
+    // Durations recorded in nanoseconds (see recordSince), reported in milliseconds
+    public static Histogram latency() {
+        return new Histogram(1e6, "ms");
+    }
+
+    public void record(long raw) {
+        if (raw < 0) raw = 0;
+        counts.getAndIncrement(bucket(raw));
+        count.increment();
+        sum.add(raw);
+        long m = max.get();
+        while (raw > m && !max.compareAndSet(m, raw)) m = max.get();
+    }
+
+    // Records a value in reporting units, e.g. a confidence with rawPerUnit 10 keeps one decimal
+    public void record(double value) {
+        record(Math.round(value * rawPerUnit));
+    }
+
+    // Records System.nanoTime() - startNanos and returns the current nanoTime, so stages can be chained
+    public long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(now - startNanos);
+        return now;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / rawPerUnit / n;
+    }
+
+    public double max() {
+        return max.get() / rawPerUnit;
+    }
+
+    // The value below which the fraction q of recorded values fall, in reporting units
+    public double percentile(double q) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(middle(i), max.get()) / rawPerUnit;
+        }
+        return max();
+    }
+
+    public String unit() {
+        return unit;
+    }
+
+    private static int bucket(long value) {
+        if (value < LINEAR) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS) * SUB_BUCKETS + sub + SUB_BUCKETS;
+    }
+
+    // Midpoint of the values that land in bucket i
+    private static double middle(int i) {
+        if (i < LINEAR) return i;
+        int k = i - SUB_BUCKETS;
+        int shift = k / SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + k % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1) / 2.0;
+    }
+}
@@ -0,0 +1,52 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+
+import java.io.File;
+import java.util.Arrays;
+
+// Replays a folder of still images (e.g. frames exported from a lecture recording) in file name order
+public class ImageDirectoryFrameSource implements FrameSource {
+
+    private final File[] files;
+    private int next;
+
+    public ImageDirectoryFrameSource(File dir) {
+        File[] found = dir.listFiles((d, name) -> {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
+        });
+        if (found == null) {
+            throw new IllegalStateException("Not a folder: " + dir);
+        }
+        Arrays.sort(found);
+        this.files = found;
+    }
+
+    @Override
+    public synchronized boolean read(Mat frame) {
+        while (next < files.length) {
+            Mat image = opencv_imgcodecs.imread(files[next++].getAbsolutePath(), opencv_imgcodecs.IMREAD_COLOR);
+            boolean ok = !image.empty();
+            if (ok) image.copyTo(frame);
+            image.close();
+            if (ok) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean skip(Mat scratch) {
+        if (next >= files.length) return false;
+        next++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isFinished() {
+        return next >= files.length;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// label <-> student_id <-> name for every person the model was trained on, saved next to the model.
+// A person keeps their label across retrains and enrolments; newcomers get the next free one.
+//
+// The file is a small binary table that is memory-mapped on load, with one fixed-size row per label
+// so a label is looked up by offset rather than by parsing:
+//
+//   int magic 'LBLR', int version, int maxLabel
+//   (maxLabel + 1) x { int studentId, int nameOffset, int nameLength }   nameLength -1 = no such label
+//   UTF-8 name bytes
+//
+// Lookups (name, studentId, labelOfStudent, contains, maxLabel) take no lock, so recognizer threads
+// can use them per face: the arrays are published through volatile fields and the maps are concurrent.
+// Changes (labelFor, resolveStudentIds, save) are synchronized with each other; a lookup running
+// alongside one sees each label either before or after it.
+public class LabelRegistry {
+
+    private static final int MAGIC = 0x4C424C52; // "LBLR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int ROW_BYTES = 12;
+
+    private volatile String[] nameByLabel = new String[1];
+    private volatile int[] studentIdByLabel = {-1};      // -1 when the student_id is not known yet
+    private volatile int maxLabel;
+    private final Map<String, Integer> labelByName = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> labelByStudentId = new ConcurrentHashMap<>();
+
+    public static LabelRegistry load(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < HEADER_BYTES || buf.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a label registry");
+            }
+            if (buf.getInt(4) != VERSION) {
+                throw new IOException(path + " has unsupported label registry version " + buf.getInt(4));
+            }
+            int maxLabel = buf.getInt(8);
+            long namesStart = HEADER_BYTES + (long) (maxLabel + 1) * ROW_BYTES;
+            if (maxLabel < 0 || namesStart > buf.capacity()) throw new IOException(path + " is truncated");
+
+            LabelRegistry registry = new LabelRegistry();
+            registry.ensureCapacity(maxLabel);
+            byte[] bytes = new byte[64];
+            for (int label = 0; label <= maxLabel; label++) {
+                int row = HEADER_BYTES + label * ROW_BYTES;
+                int length = buf.getInt(row + 8);
+                if (length < 0) continue;
+
+                int offset = (int) namesStart + buf.getInt(row + 4);
+                if (offset + length > buf.capacity()) throw new IOException(path + " is truncated");
+                if (bytes.length < length) bytes = new byte[length];
+                buf.get(offset, bytes, 0, length);
+                registry.put(label, new String(bytes, 0, length, StandardCharsets.UTF_8), buf.getInt(row));
+            }
+            return registry;
+        }
+    }
+
+    // The saved registry, or an empty one if there is none yet
+    public static LabelRegistry loadOrEmpty(String path) {
+        if (!new File(path).exists()) return new LabelRegistry();
+        try {
+            return load(path);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read label registry " + path, e);
+        }
+    }
+
+    // The person's label, assigning the next free one (labels start at 1) if they are new
+    public synchronized int labelFor(String name) {
+        return labelFor(name, -1);
+    }
+
+    // As labelFor(name), also recording the student_id when it is known (>= 0)
+    public synchronized int labelFor(String name, int studentId) {
+        Integer label = labelByName.get(name);
+        if (label == null) {
+            label = maxLabel + 1;
+            put(label, name, -1);
+        }
+        if (studentId >= 0) setStudentId(label, studentId);
+        return label;
+    }
+
+    public boolean contains(String name) {
+        return labelByName.containsKey(name);
+    }
+
+    public String name(int label) {
+        String[] names = nameByLabel;
+        return label >= 0 && label < names.length ? names[label] : null;
+    }
+
+    // The student_id behind the label, or -1 if the label is unknown or was never matched to a student
+    public int studentId(int label) {
+        int[] studentIds = studentIdByLabel;
+        return label >= 0 && label < studentIds.length ? studentIds[label] : -1;
+    }
+
+    // The label a student was trained under, or -1
+    public int labelOfStudent(int studentId) {
+        Integer label = labelByStudentId.get(studentId);
+        return label == null ? -1 : label;
+    }
+
+    public int maxLabel() {
+        return maxLabel;
+    }
+
+    public Map<Integer, String> asMap() {
+        String[] names = nameByLabel;
+        Map<Integer, String> map = new TreeMap<>();
+        for (int label = 0; label < names.length; label++) {
+            if (names[label] != null) map.put(label, names[label]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    // Fills in the student_id of every label that does not have one yet by matching names against
+    // the students table. Returns how many labels are still without a student.
+    public synchronized int resolveStudentIds(PooledConnection conn) throws SQLException {
+        int missing = 0;
+        for (int label = 0; label <= maxLabel; label++) {
+            if (nameByLabel[label] != null && studentIdByLabel[label] < 0) missing++;
+        }
+        if (missing == 0) return 0;
+
+        try (ResultSet rs = conn.prepare("SELECT student_id, name FROM students").executeQuery()) {
+            while (rs.next()) {
+                Integer label = labelByName.get(rs.getString("name"));
+                if (label != null && studentIdByLabel[label] < 0) {
+                    setStudentId(label, rs.getInt("student_id"));
+                    missing--;
+                }
+            }
+        }
+        return missing;
+    }
+
+    // Writes to a temporary file first so a crash never leaves a half-written registry behind
+    public synchronized void save(String path) throws IOException {
+        byte[][] names = new byte[maxLabel + 1][];
+        int namesLength = 0;
+        for (int label = 0; label <= maxLabel; label++) {
+            if (nameByLabel[label] == null) continue;
+            names[label] = nameByLabel[label].getBytes(StandardCharsets.UTF_8);
+            namesLength += names[label].length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + (maxLabel + 1) * ROW_BYTES + namesLength);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(maxLabel);
+        int offset = 0;
+        for (int label = 0; label <= maxLabel; label++) {
+            int length = names[label] == null ? -1 : names[label].length;
+            buf.putInt(studentIdByLabel[label]).putInt(offset).putInt(length);
+            if (length > 0) offset += length;
+        }
+        for (byte[] name : names) {
+            if (name != null) buf.put(name);
+        }
+
+        File target = new File(path);
+        File tmp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+        Files.write(tmp.toPath(), buf.array());
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Callers hold the lock (or own the registry, while loading it)
+    private void put(int label, String name, int studentId) {
+        ensureCapacity(label);
+        nameByLabel[label] = name;
+        if (studentId >= 0) setStudentId(label, studentId);
+        labelByName.put(name, label);
+        maxLabel = Math.max(maxLabel, label); // volatile write: publishes the stores above
+    }
+
+    private void setStudentId(int label, int studentId) {
+        int[] studentIds = studentIdByLabel;
+        int previous = studentIds[label];
+        if (previous >= 0) labelByStudentId.remove(previous);
+        studentIds[label] = studentId;
+        studentIdByLabel = studentIds; // volatile write: publishes the store for lock-free readers
+        labelByStudentId.put(studentId, label);
+    }
+
+    // Grown arrays are filled before they are published
+    private void ensureCapacity(int label) {
+        if (label < nameByLabel.length) return;
+        int size = Math.max(label + 1, nameByLabel.length * 2);
+        int[] studentIds = Arrays.copyOf(studentIdByLabel, size);
+        Arrays.fill(studentIds, studentIdByLabel.length, size, -1);
+        studentIdByLabel = studentIds;
+        nameByLabel = Arrays.copyOf(nameByLabel, size);
+    }
+}
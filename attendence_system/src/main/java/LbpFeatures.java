@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+// Pure-Java version of the features LBPHFaceRecognizer computes: OpenCV's extended LBP with radius 1
+// and 8 bilinearly interpolated neighbours, then one normalised 256-bin histogram per cell of an
+// 8x8 grid. The arithmetic follows OpenCV's elbp/spatial_histogram step for step, so histograms
+// from here can be compared with the ones stored in a trained model.
+//
+// One instance keeps its scratch buffer between calls; use one per thread.
+public class LbpFeatures {
+
+    public static final int RADIUS = 1;
+    public static final int NEIGHBORS = 8;
+    public static final int GRID_X = 8;
+    public static final int GRID_Y = 8;
+    public static final int PATTERNS = 1 << NEIGHBORS;
+    public static final int CELLS = GRID_X * GRID_Y;
+    public static final int LENGTH = CELLS * PATTERNS;
+
+    // Sampling offsets and bilinear weights of every neighbour, computed the way OpenCV does
+    // (in float, from a double cos/sin), so the interpolated values match bit for bit
+    private static final int[] FX = new int[NEIGHBORS];
+    private static final int[] FY = new int[NEIGHBORS];
+    private static final int[] CX = new int[NEIGHBORS];
+    private static final int[] CY = new int[NEIGHBORS];
+    private static final float[] W1 = new float[NEIGHBORS];
+    private static final float[] W2 = new float[NEIGHBORS];
+    private static final float[] W3 = new float[NEIGHBORS];
+    private static final float[] W4 = new float[NEIGHBORS];
+
+    static {
+        for (int n = 0; n < NEIGHBORS; n++) {
+            float x = (float) (RADIUS * Math.cos(2.0 * Math.PI * n / (float) NEIGHBORS));
+            float y = (float) (-RADIUS * Math.sin(2.0 * Math.PI * n / (float) NEIGHBORS));
+            FX[n] = (int) Math.floor(x);
+            FY[n] = (int) Math.floor(y);
+            CX[n] = (int) Math.ceil(x);
+            CY[n] = (int) Math.ceil(y);
+            float ty = y - FY[n];
+            float tx = x - FX[n];
+            W1[n] = (1 - tx) * (1 - ty);
+            W2[n] = tx * (1 - ty);
+            W3[n] = (1 - tx) * ty;
+            W4[n] = tx * ty;
+        }
+    }
+
+    // OpenCV's FLT_EPSILON test: an interpolated neighbour equal to the centre also sets the bit
+    private static final float EPSILON = Math.ulp(1.0f);
+
+    private final int[] counts = new int[LENGTH];
+    private int[] codes = new int[0];
+
+    // Writes the LENGTH-float histogram of a grayscale image (row-major, one byte per pixel) into out
+    public void histogram(byte[] pixels, int rows, int cols, float[] out) {
+        histogram(pixels, 0, rows, cols, out);
+    }
+
+    // As histogram(pixels, rows, cols, out) for an image starting at pixels[offset], e.g. one face
+    // of a BatchRecognizer stack
+    public void histogram(byte[] pixels, int offset, int rows, int cols, float[] out) {
+        int lbpRows = rows - 2 * RADIUS;
+        int lbpCols = cols - 2 * RADIUS;
+        int cellHeight = lbpRows / GRID_Y;
+        int cellWidth = lbpCols / GRID_X;
+        // Only the pixels that fall inside the grid are counted, as in OpenCV (the last
+        // lbpRows % GRID_Y rows and lbpCols % GRID_X columns are left out)
+        int height = cellHeight * GRID_Y;
+        int width = cellWidth * GRID_X;
+        if (codes.length < height * width) codes = new int[height * width];
+        int[] codes = this.codes;
+        Arrays.fill(codes, 0, height * width, 0);
+
+        // One neighbour at a time over the whole image, like OpenCV: the inner loop then reads
+        // four fixed offsets and is simple enough for the JIT to unroll
+        for (int n = 0; n < NEIGHBORS; n++) {
+            float w1 = W1[n], w2 = W2[n], w3 = W3[n], w4 = W4[n];
+            int bit = 1 << n;
+            for (int r = 0; r < height; r++) {
+                int i = r + RADIUS;
+                int center = offset + i * cols + RADIUS;
+                int p1 = offset + (i + FY[n]) * cols + RADIUS + FX[n];
+                int p2 = offset + (i + FY[n]) * cols + RADIUS + CX[n];
+                int p3 = offset + (i + CY[n]) * cols + RADIUS + FX[n];
+                int p4 = offset + (i + CY[n]) * cols + RADIUS + CX[n];
+                int row = r * width;
+                for (int c = 0; c < width; c++) {
+                    float t = w1 * (pixels[p1 + c] & 0xFF) + w2 * (pixels[p2 + c] & 0xFF)
+                            + w3 * (pixels[p3 + c] & 0xFF) + w4 * (pixels[p4 + c] & 0xFF);
+                    int v = pixels[center + c] & 0xFF;
+                    if (t > v || Math.abs(t - v) < EPSILON) codes[row + c] |= bit;
+                }
+            }
+        }
+
+        int[] counts = this.counts;
+        Arrays.fill(counts, 0);
+        for (int r = 0; r < height; r++) {
+            int cellRow = (r / cellHeight) * GRID_X;
+            int row = r * width;
+            for (int c = 0; c < width; c++) {
+                counts[(cellRow + c / cellWidth) * PATTERNS + codes[row + c]]++;
+            }
+        }
+
+        // OpenCV divides by the cell size as a float scale factor
+        float scale = (float) (1.0 / (cellWidth * cellHeight));
+        for (int k = 0; k < LENGTH; k++) out[k] = counts[k] * scale;
+    }
+}
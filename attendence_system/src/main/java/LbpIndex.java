@@ -0,0 +1,416 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+// Nearest-neighbour search over LBPH histograms without OpenCV: the same chi-square (CHISQR_ALT)
+// distance LBPHFaceRecognizer.predict uses, over histograms kept in off-heap memory.
+//
+// Two ways to search:
+//   exact      every histogram is compared with the query. Only the query's non-zero bins are
+//              visited (a face fills roughly a third of them), using
+//              sum (h-q)^2/(h+q) = sum over q>0 of [(h-q)^2/(h+q) - h] + sum h
+//   clustered  after cluster(): every histogram also gets a 640-float summary (per cell, the
+//              rotation-invariant uniform pattern counts, square-rooted) and the summaries are
+//              grouped by k-means. A query only looks at the closest clusters, ranks their members
+//              by summary, and computes the exact distance for the best few. This is approximate:
+//              the true nearest histogram can be missed, but in exchange the work per query no
+//              longer grows with the whole roster.
+//
+// Build the index first (add / cluster), then search from any number of threads.
+public class LbpIndex implements FaceMatcher {
+
+    // Coarse summary: 10 rotation-invariant uniform bins (0..8 ones, or non-uniform) per cell
+    private static final int COARSE_BINS = 10;
+    public static final int COARSE_LENGTH = LbpFeatures.CELLS * COARSE_BINS;
+    private static final byte[] COARSE_BIN = new byte[LbpFeatures.PATTERNS];
+
+    static {
+        for (int code = 0; code < LbpFeatures.PATTERNS; code++) {
+            int rotated = ((code >>> 1) | (code << (LbpFeatures.NEIGHBORS - 1))) & (LbpFeatures.PATTERNS - 1);
+            int transitions = Integer.bitCount(code ^ rotated);
+            COARSE_BIN[code] = (byte) (transitions <= 2 ? Integer.bitCount(code) : COARSE_BINS - 1);
+        }
+    }
+
+    // Histograms live in fixed-size off-heap chunks, so the index can grow past 2 GB and never
+    // has to copy what it already holds
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+
+    private final double threshold;
+    private final List<FloatBuffer> chunks = new ArrayList<>();
+    private int[] labels = new int[CHUNK_ROWS];
+    private float[] totals = new float[CHUNK_ROWS];   // sum of every histogram's bins
+    private float[] coarse = new float[0];            // size * COARSE_LENGTH, filled by cluster()
+    private int size;
+
+    // Clusters as CSR: members of cluster c are members[clusterStart[c] .. clusterStart[c+1])
+    private float[] centroids;
+    private int[] clusterStart;
+    private int[] members;
+    private int probes;
+    private int rerank;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // threshold as in LBPHFaceRecognizer: a best distance at or above it is reported as label -1
+    public LbpIndex(double threshold) {
+        this.threshold = threshold;
+    }
+
+    // Copies the histograms of a trained model, optionally only those of the given labels
+    public static LbpIndex fromModel(LBPHFaceRecognizer model, BitSet allowedLabels) {
+        if (model.getRadius() != LbpFeatures.RADIUS || model.getNeighbors() != LbpFeatures.NEIGHBORS
+                || model.getGridX() != LbpFeatures.GRID_X || model.getGridY() != LbpFeatures.GRID_Y) {
+            throw new IllegalArgumentException("LbpIndex only supports radius 1, 8 neighbours and an 8x8 grid");
+        }
+
+        LbpIndex index = new LbpIndex(model.getThreshold());
+        MatVector histograms = model.getHistograms();
+        Mat labelsMat = model.getLabels();
+        IntBuffer labels = labelsMat.createBuffer();
+        float[] histogram = new float[LbpFeatures.LENGTH];
+        for (int i = 0; i < histograms.size(); i++) {
+            int label = labels.get(i);
+            if (allowedLabels != null && (label < 0 || !allowedLabels.get(label))) continue;
+            ((FloatBuffer) histograms.get(i).createBuffer()).get(histogram);
+            index.add(label, histogram);
+        }
+        histograms.close();
+        labelsMat.close();
+        return index;
+    }
+
+    public void add(int label, float[] histogram) {
+        if (histogram.length != LbpFeatures.LENGTH) {
+            throw new IllegalArgumentException("Expected a histogram of " + LbpFeatures.LENGTH + " floats");
+        }
+        FloatBuffer chunk = reserve();
+        int base = (size & (CHUNK_ROWS - 1)) * LbpFeatures.LENGTH;
+        chunk.put(base, histogram);
+        commit(label, chunk, base);
+    }
+
+    // As add(label, float[]), copying the histogram that starts at src[offset] (e.g. a mapped
+    // ModelSnapshot) without going through the heap
+    public void add(int label, FloatBuffer src, int offset) {
+        FloatBuffer chunk = reserve();
+        int base = (size & (CHUNK_ROWS - 1)) * LbpFeatures.LENGTH;
+        chunk.put(base, src, offset, LbpFeatures.LENGTH);
+        commit(label, chunk, base);
+    }
+
+    // The chunk the next histogram goes into, allocating it and growing labels/totals as needed
+    private FloatBuffer reserve() {
+        int chunk = size >>> CHUNK_SHIFT;
+        if (chunk == chunks.size()) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_ROWS * LbpFeatures.LENGTH * Float.BYTES)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer());
+        }
+        if (size == labels.length) {
+            labels = Arrays.copyOf(labels, size * 2);
+            totals = Arrays.copyOf(totals, size * 2);
+        }
+        return chunks.get(chunk);
+    }
+
+    private void commit(int label, FloatBuffer chunk, int base) {
+        double total = 0;
+        for (int k = 0; k < LbpFeatures.LENGTH; k++) total += chunk.get(base + k);
+        labels[size] = label;
+        totals[size] = (float) total;
+        size++;
+        centroids = null; // clusters no longer cover every histogram
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Groups the histograms into `clusters` k-means clusters; searches then visit the `probes` closest
+    // clusters and compute exact distances for the `rerank` best-looking members. clusters <= 1 goes
+    // back to exact search.
+    public void cluster(int clusters, int probes, int rerank) {
+        clusters = Math.min(clusters, size);
+        if (clusters <= 1) {
+            centroids = null;
+            return;
+        }
+        this.probes = Math.max(1, Math.min(probes, clusters));
+        this.rerank = Math.max(1, rerank);
+
+        coarse = new float[size * COARSE_LENGTH];
+        float[] histogram = new float[LbpFeatures.LENGTH];
+        for (int i = 0; i < size; i++) {
+            FloatBuffer chunk = chunks.get(i >>> CHUNK_SHIFT);
+            chunk.get((i & (CHUNK_ROWS - 1)) * LbpFeatures.LENGTH, histogram);
+            coarse(histogram, coarse, i * COARSE_LENGTH);
+        }
+
+        // Lloyd's k-means on a sample, seeded from the sample itself
+        Random random = new Random(42);
+        int sampleSize = Math.min(size, clusters * 32);
+        int[] sample = new int[size];
+        for (int i = 0; i < size; i++) sample[i] = i;
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + random.nextInt(size - i);
+            int t = sample[i];
+            sample[i] = sample[j];
+            sample[j] = t;
+        }
+
+        float[] centers = new float[clusters * COARSE_LENGTH];
+        for (int c = 0; c < clusters; c++) {
+            System.arraycopy(coarse, sample[c] * COARSE_LENGTH, centers, c * COARSE_LENGTH, COARSE_LENGTH);
+        }
+        int[] assignment = new int[size];
+        int[] counts = new int[clusters];
+        double[] sums = new double[clusters * COARSE_LENGTH];
+        for (int iteration = 0; iteration < 10; iteration++) {
+            Arrays.fill(counts, 0);
+            Arrays.fill(sums, 0);
+            for (int s = 0; s < sampleSize; s++) {
+                int i = sample[s];
+                int c = nearest(centers, clusters, coarse, i * COARSE_LENGTH);
+                counts[c]++;
+                for (int d = 0; d < COARSE_LENGTH; d++) sums[c * COARSE_LENGTH + d] += coarse[i * COARSE_LENGTH + d];
+            }
+            for (int c = 0; c < clusters; c++) {
+                if (counts[c] == 0) {
+                    // An empty cluster restarts from a random sample point
+                    int i = sample[random.nextInt(sampleSize)];
+                    System.arraycopy(coarse, i * COARSE_LENGTH, centers, c * COARSE_LENGTH, COARSE_LENGTH);
+                    continue;
+                }
+                for (int d = 0; d < COARSE_LENGTH; d++) {
+                    centers[c * COARSE_LENGTH + d] = (float) (sums[c * COARSE_LENGTH + d] / counts[c]);
+                }
+            }
+        }
+
+        // Assign every histogram and lay the clusters out contiguously
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < size; i++) {
+            assignment[i] = nearest(centers, clusters, coarse, i * COARSE_LENGTH);
+            counts[assignment[i]]++;
+        }
+        int[] start = new int[clusters + 1];
+        for (int c = 0; c < clusters; c++) start[c + 1] = start[c] + counts[c];
+        int[] fill = Arrays.copyOf(start, clusters);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[fill[assignment[i]]++] = i;
+
+        clusterStart = start;
+        members = order;
+        centroids = centers;
+    }
+
+    // cluster() with defaults for the index size: about sqrt(n) clusters, an eighth of them probed
+    public void cluster() {
+        int clusters = (int) Math.round(Math.sqrt(size));
+        cluster(clusters, Math.max(4, clusters / 8), 32);
+    }
+
+    public boolean isClustered() {
+        return centroids != null;
+    }
+
+    @Override
+    public void predict(Mat face, int[] label, double[] confidence) {
+        Scratch s = scratch.get();
+        int rows = face.rows();
+        int cols = face.cols();
+        if (s.pixels.length < rows * cols) s.pixels = new byte[rows * cols];
+        if (face.isContinuous()) {
+            face.data().get(s.pixels, 0, rows * cols);
+        } else {
+            for (int r = 0; r < rows; r++) face.ptr(r).get(s.pixels, r * cols, cols);
+        }
+        predict(s.pixels, 0, rows, cols, label, confidence, 0);
+    }
+
+    // As predict(Mat, ...) for a face already on the heap: rows x cols pixels starting at
+    // pixels[offset], result in label[at] and confidence[at]
+    public void predict(byte[] pixels, int offset, int rows, int cols, int[] label, double[] confidence, int at) {
+        Scratch s = scratch.get();
+        s.features.histogram(pixels, offset, rows, cols, s.query);
+        search(s.query, label, confidence, at);
+    }
+
+    // Closest histogram to the query: label[0] and distance[0], or -1 and Double.MAX_VALUE
+    public void search(float[] query, int[] label, double[] distance) {
+        search(query, label, distance, 0);
+    }
+
+    // As search(query, label, distance), writing label[at] and distance[at]
+    public void search(float[] query, int[] label, double[] distance, int at) {
+        Scratch s = scratch.get();
+
+        // The query's non-zero bins; every other bin contributes the stored value itself
+        int nonZero = 0;
+        for (int k = 0; k < LbpFeatures.LENGTH; k++) {
+            if (query[k] != 0) {
+                s.bins[nonZero] = k;
+                s.values[nonZero] = query[k];
+                nonZero++;
+            }
+        }
+
+        int bestLabel = -1;
+        double best = Double.MAX_VALUE;
+        if (centroids == null) {
+            for (int i = 0; i < size; i++) {
+                double d = distance(i, s.bins, s.values, nonZero);
+                if (d < best && d < threshold) {
+                    best = d;
+                    bestLabel = labels[i];
+                }
+            }
+        } else {
+            int candidates = candidates(query, s);
+            for (int k = 0; k < candidates; k++) {
+                int i = s.candidates[k];
+                double d = distance(i, s.bins, s.values, nonZero);
+                if (d < best && d < threshold) {
+                    best = d;
+                    bestLabel = labels[i];
+                }
+            }
+        }
+        label[at] = bestLabel;
+        distance[at] = best;
+    }
+
+    // e.g. "5000 histograms, exact" or "5000 histograms, 71 clusters, 8 probed, rerank 32"
+    public String describe() {
+        if (centroids == null) return size + " histograms, exact";
+        return size + " histograms, " + (clusterStart.length - 1) + " clusters, " + probes + " probed, rerank " + rerank;
+    }
+
+    // CHISQR_ALT between stored histogram i and the query given by its non-zero bins
+    private double distance(int i, int[] bins, float[] values, int nonZero) {
+        FloatBuffer chunk = chunks.get(i >>> CHUNK_SHIFT);
+        int base = (i & (CHUNK_ROWS - 1)) * LbpFeatures.LENGTH;
+        double sum = 0;
+        double covered = 0;
+        for (int k = 0; k < nonZero; k++) {
+            float h = chunk.get(base + bins[k]);
+            float q = values[k];
+            float a = h - q;
+            sum += a * a / (h + q);
+            covered += h;
+        }
+        return 2 * (sum + totals[i] - covered);
+    }
+
+    // Fills s.candidates with the members of the closest clusters that look best by summary
+    private int candidates(float[] query, Scratch s) {
+        coarse(query, s.coarse, 0);
+        int clusters = clusterStart.length - 1;
+        if (s.centroidDistance.length != clusters || s.probed.length != probes || s.candidates.length != rerank) {
+            s.resize(clusters, probes, rerank);
+        }
+
+        // The `probes` closest centroids, by partial selection
+        for (int c = 0; c < clusters; c++) s.centroidDistance[c] = l2(centroids, c * COARSE_LENGTH, s.coarse, 0);
+        for (int p = 0; p < probes; p++) {
+            int min = -1;
+            for (int c = 0; c < clusters; c++) {
+                if (s.centroidDistance[c] >= 0 && (min < 0 || s.centroidDistance[c] < s.centroidDistance[min])) min = c;
+            }
+            s.probed[p] = min;
+            s.centroidDistance[min] = -1;
+        }
+
+        // Keep the `rerank` members with the smallest summary distance
+        int kept = 0;
+        int worst = 0;
+        for (int p = 0; p < probes; p++) {
+            int c = s.probed[p];
+            for (int m = clusterStart[c]; m < clusterStart[c + 1]; m++) {
+                int i = members[m];
+                float d = l2(coarse, i * COARSE_LENGTH, s.coarse, 0);
+                if (kept < rerank) {
+                    s.candidates[kept] = i;
+                    s.candidateDistance[kept] = d;
+                    if (d > s.candidateDistance[worst]) worst = kept;
+                    kept++;
+                } else if (d < s.candidateDistance[worst]) {
+                    s.candidates[worst] = i;
+                    s.candidateDistance[worst] = d;
+                    for (int k = 0; k < kept; k++) {
+                        if (s.candidateDistance[k] > s.candidateDistance[worst]) worst = k;
+                    }
+                }
+            }
+        }
+        return kept;
+    }
+
+    private static int nearest(float[] centers, int clusters, float[] v, int offset) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < clusters; c++) {
+            float d = l2(centers, c * COARSE_LENGTH, v, offset);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static float l2(float[] a, int aOffset, float[] b, int bOffset) {
+        float sum = 0;
+        for (int d = 0; d < COARSE_LENGTH; d++) {
+            float diff = a[aOffset + d] - b[bOffset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    // Square roots of the per-cell uniform pattern sums: under L2 this behaves like a chi-square
+    // distance between the summaries (Hellinger)
+    private static void coarse(float[] histogram, float[] out, int offset) {
+        Arrays.fill(out, offset, offset + COARSE_LENGTH, 0);
+        for (int cell = 0; cell < LbpFeatures.CELLS; cell++) {
+            int base = cell * LbpFeatures.PATTERNS;
+            int outBase = offset + cell * COARSE_BINS;
+            for (int code = 0; code < LbpFeatures.PATTERNS; code++) {
+                out[outBase + COARSE_BIN[code]] += histogram[base + code];
+            }
+        }
+        for (int d = offset; d < offset + COARSE_LENGTH; d++) out[d] = (float) Math.sqrt(out[d]);
+    }
+
+    // Per searching thread, so predict/search allocate nothing after the first call
+    private static final class Scratch {
+        final LbpFeatures features = new LbpFeatures();
+        byte[] pixels = new byte[FrameScratch.FACE_SIZE * FrameScratch.FACE_SIZE];
+        final float[] query = new float[LbpFeatures.LENGTH];
+        final int[] bins = new int[LbpFeatures.LENGTH];
+        final float[] values = new float[LbpFeatures.LENGTH];
+        final float[] coarse = new float[COARSE_LENGTH];
+        float[] centroidDistance = new float[0];
+        int[] probed = new int[0];
+        int[] candidates = new int[0];
+        float[] candidateDistance = new float[0];
+
+        void resize(int clusters, int probes, int rerank) {
+            centroidDistance = new float[clusters];
+            probed = new int[probes];
+            candidates = new int[rerank];
+            candidateDistance = new float[rerank];
+        }
+    }
+}
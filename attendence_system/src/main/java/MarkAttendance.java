@@ -1,33 +1,23 @@
-import org.bytedeco.opencv.opencv_core.*;
-import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
-import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
-import org.bytedeco.opencv.opencv_videoio.VideoCapture;
-import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.global.opencv_highgui;
-import org.bytedeco.opencv.global.opencv_imgcodecs;
 
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
 import java.sql.*;
-import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public class MarkAttendance {
 
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/fdbas";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "12345";
-
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
 
         //  Fetch available courses
         Map<Integer, String> coursesMap = new HashMap<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT course_id, course_name FROM courses");
+        ConnectionPool pool = ConnectionPool.shared();
+        try (PooledConnection conn = pool.borrow()) {
+            ResultSet rs = conn.prepare("SELECT course_id, course_name FROM courses").executeQuery();
 
             System.out.println("Available Courses:");
             while (rs.next()) {
@@ -59,142 +49,135 @@ public class MarkAttendance {
         String selectedCourseName = coursesMap.get(selectedCourseId);
         System.out.println(" Attendance will be marked for: " + selectedCourseName);
 
-        //  Load face recognizer and Haar Cascade
         String modelPath = "D:/finall/attendence_system/trained_model.xml";
-        LBPHFaceRecognizer recognizer = LBPHFaceRecognizer.create();
-        recognizer.read(modelPath);
-
         String cascadePath = "D:/finall/attendence_system/haarcascade_frontalface_alt.xml";
-        CascadeClassifier faceDetector = new CascadeClassifier(cascadePath);
-
-        //  Map labels to student names
-        Map<Integer, String> labelToName = new HashMap<>();
-        labelToName.put(1, "aditya");
-        labelToName.put(2, "abhishek");
-        labelToName.put(3, "chandu");
-        labelToName.put(4, "Garvit");
-        labelToName.put(5, "krish");
-
-        //  Track recognized students for 3-time accuracy
-        Map<String, Integer> recognitionCount = new HashMap<>();
-
-        //  Open webcam
-        VideoCapture camera = new VideoCapture(0);
-        if (!camera.isOpened()) {
-            System.out.println(" Cannot open camera");
+
+        //  Labels, student ids and names as saved next to the model by TrainModel
+        String labelsPath = "D:/finall/attendence_system/" + TrainModel.LABELS_PATH;
+        if (!new File(labelsPath).exists()) {
+            System.out.println(" Label registry not found: " + labelsPath + " (run TrainModel first)");
+            return;
+        }
+        LabelRegistry labels = LabelRegistry.loadOrEmpty(labelsPath);
+
+        //  Resolve students and already-marked rows once; track recognitions for 3-time accuracy.
+        //  The recognizer is sharded / restricted to the course as -Drecognizer.* asks (see CourseRecognizer).
+        //  The session ends once the course roster is complete or no new students turn up (see SessionController).
+        AttendanceSession session;
+        SessionController controller;
+        CourseRecognizer recognizer;
+        try (PooledConnection conn = pool.borrow()) {
+            session = AttendanceSession.load(conn, selectedCourseId, labels, 3);
+            controller = SessionController.fromSystemProperties(conn, session, labels);
+            recognizer = CourseRecognizer.open(modelPath, conn, selectedCourseId, labels);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
+        System.out.println(" Recognizer: " + recognizer.describe());
+
+        //  Open webcam (or the recording / image folder given as the first argument)
+        FrameSource camera;
+        try {
+            camera = FrameSource.open(args.length > 0 ? args[0] : "webcam:0");
+        } catch (RuntimeException e) {
+            System.out.println(" Cannot open camera: " + e.getMessage());
+            recognizer.close();
             return;
         }
 
-        Mat frame = new Mat();
-        System.out.println(" Camera started. Attendance will run for 120 seconds...");
-
-        long startTime = System.currentTimeMillis();
-        long duration = 120 * 1000; // 120 seconds
-
-        while (System.currentTimeMillis() - startTime < duration) {
-            if (!camera.read(frame)) continue;
-
-            Mat gray = new Mat();
-            opencv_imgproc.cvtColor(frame, gray, opencv_imgproc.COLOR_BGR2GRAY);
-
-            RectVector faces = new RectVector();
-            faceDetector.detectMultiScale(gray, faces);
-
-            for (int i = 0; i < faces.size(); i++) {
-                Rect face = faces.get(i);
-                Mat faceROI = new Mat(gray, face);
-
-                int[] label = new int[1];
-                double[] confidence = new double[1];
-                recognizer.predict(faceROI, label, confidence);
-
-                if (confidence[0] < 80) {
-                    String studentName = labelToName.get(label[0]);
+        //  Optionally follow faces across frames: whole-frame detection every -Dtracker.fullEvery frames,
+        //  and no more recognitions for a face once it has been identified. Off by default (0), since
+        //  tracking needs frames in order and so runs one detector whatever -Dpipeline.detectors says
+        int fullEvery = Integer.getInteger("tracker.fullEvery", 0);
+        FaceTracker tracker = fullEvery > 0 ? new FaceTracker(fullEvery, session.hitsRequired(), 80) : null;
+
+        //  Grab, detect and recognize on separate threads; this thread only does the bookkeeping
+        int cores = Runtime.getRuntime().availableProcessors();
+        DetectionProfile profile = DetectionProfile.fromSystemProperties();
+        System.out.println(" Detection: " + profile.describe());
+        FramePipeline pipeline = new FramePipeline(camera, cascadePath, profile, recognizer, tracker,
+                FrameGate.fromSystemProperties(),
+                Integer.getInteger("pipeline.detectors", Math.max(1, cores / 2)),
+                Integer.getInteger("pipeline.recognizers", Math.max(1, cores / 4)),
+                Integer.getInteger("pipeline.frameQueue", 4),
+                Integer.getInteger("pipeline.faceQueue", 8),
+                Integer.getInteger("pipeline.resultQueue", 256));
+
+        //  Attendance marks go to a local journal and are written in batches by a background thread
+        AttendanceWriter writer = AttendanceWriter.fromSystemProperties(pool);
+
+        //  Stage latencies, rates, drops and queue depths (see Metrics for -Dmetrics.*)
+        Metrics metrics = Metrics.fromSystemProperties("MarkAttendance");
+        pipeline.registerWith(metrics);
+        writer.registerWith(metrics);
+        controller.registerWith(metrics);
+
+        System.out.println(" Camera started. Attendance will run " + controller.describe() + "...");
+
+        controller.start();
+        pipeline.start();
+        try {
+            while (!controller.shouldStop()) {
+                if (pipeline.isDone()) {
+                    controller.stop("video ended");
+                    break;
+                }
+                FramePipeline.Recognition result = pipeline.poll(100, TimeUnit.MILLISECONDS);
+                if (result == null) continue;
 
+                if (result.confidence() < 80) {
                     // count recognitions
-                    recognitionCount.put(studentName, recognitionCount.getOrDefault(studentName, 0) + 1);
-
-                    if (recognitionCount.get(studentName) == 3) {
-                        System.out.println(" Recognized: " + studentName + " (attendance marked)");
-                        markAttendance(studentName, selectedCourseId);
+                    controller.recognized(result.label());
+                    if (session.recordHit(result.label()) == session.hitsRequired()) {
+                        System.out.println(" Recognized: " + session.name(result.label()) + " (attendance marked)");
+
+                        // Students already marked for this course cost nothing
+                        int studentId = session.markIfAbsent(result.label());
+                        if (studentId >= 0) {
+                            writer.mark(studentId, selectedCourseId);
+                            controller.marked(result.label());
+                        }
                     }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            controller.stop("interrupted");
+        } finally {
+            pipeline.stop();
+            recognizer.close();
         }
 
-        camera.release();
-        opencv_highgui.destroyAllWindows();
-        System.out.println("⏹ Attendance session ended.");
-
-        //  Generate CSV
-        generateCSV(selectedCourseId);
-    }
-
-    private static void markAttendance(String studentName, int courseId) {
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            // Get student_id
-            PreparedStatement psStudent = conn.prepareStatement(
-                    "SELECT student_id FROM students WHERE name = ?");
-            psStudent.setString(1, studentName);
-            ResultSet rs = psStudent.executeQuery();
-
-            int studentId = -1;
-            if (rs.next()) studentId = rs.getInt("student_id");
-            else {
-                System.out.println(" Student not found in database: " + studentName);
-                return;
-            }
-
-            // Insert attendance log (avoid duplicates)
-            PreparedStatement checkLog = conn.prepareStatement(
-                    "SELECT * FROM attendance_log WHERE student_id=? AND course_id=?");
-            checkLog.setInt(1, studentId);
-            checkLog.setInt(2, courseId);
-            ResultSet rsCheck = checkLog.executeQuery();
-            if (rsCheck.next()) return; // already marked
-
-            PreparedStatement psLog = conn.prepareStatement(
-                    "INSERT INTO attendance_log (student_id, course_id, timestamp) VALUES (?, ?, ?)");
-            psLog.setInt(1, studentId);
-            psLog.setInt(2, courseId);
-            psLog.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
-
-            psLog.executeUpdate();
-
-        } catch (SQLException e) {
-            e.printStackTrace();
+        System.out.println(" Frames grabbed: " + pipeline.grabbedFrames()
+                + ", dropped frames: " + pipeline.droppedFrames()
+                + ", dropped faces: " + pipeline.droppedFaces());
+        if (tracker != null) {
+            System.out.println(" Full detections: " + pipeline.fullDetections()
+                    + ", tracked-window detections: " + pipeline.windowDetections()
+                    + ", faces skipped (already identified): " + pipeline.skippedFaces());
         }
-    }
-
-    private static void generateCSV(int courseId) {
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             FileWriter csvWriter = new FileWriter("attendance_report_course_" + courseId + ".csv")) {
-
-            csvWriter.append("Student Name,Attendance,Date & Time\n");
-
-            Statement stmt = conn.createStatement();
-            ResultSet rsStudents = stmt.executeQuery("SELECT name, student_id FROM students");
-
-            while (rsStudents.next()) {
-                String name = rsStudents.getString("name");
-                int studentId = rsStudents.getInt("student_id");
+        if (pipeline.gate() != null) System.out.println(" Frame gate: " + pipeline.gate().summary());
+        System.out.println(" Allocations: " + pipeline.allocations().summary());
 
-                PreparedStatement psCheck = conn.prepareStatement(
-                        "SELECT timestamp FROM attendance_log WHERE student_id=? AND course_id=?");
-                psCheck.setInt(1, studentId);
-                psCheck.setInt(2, courseId);
-                ResultSet rsCheck = psCheck.executeQuery();
+        camera.close();
+        opencv_highgui.destroyAllWindows();
+        System.out.println("⏹ Attendance session " + controller.summary() + ".");
 
-                if (rsCheck.next()) {
-                    Timestamp ts = rsCheck.getTimestamp("timestamp");
-                    csvWriter.append(name).append(",P,").append(ts.toString()).append("\n");
-                } else {
-                    csvWriter.append(name).append(",A,\n");
-                }
-            }
+        //  Make sure every mark reached the database before the report reads it back
+        writer.close(Long.getLong("db.flushTimeoutMs", 10_000));
+        metrics.close();
+        System.out.println(" Metrics: " + metrics.toJson());
 
-            System.out.println(" CSV generated: attendance_report_course_" + courseId + ".csv");
+        //  Generate CSV
+        generateCSV(pool, selectedCourseId);
+        pool.close();
+    }
 
+    private static void generateCSV(ConnectionPool pool, int courseId) {
+        try (PooledConnection conn = pool.borrow()) {
+            String file = AttendanceReport.write(conn, courseId);
+            System.out.println(" CSV generated: " + file);
         } catch (SQLException | IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,182 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// What a running app reports about itself, as one JSON document:
+//   histograms  per-stage latencies (grab, cvtColor, detect, predict, dbWrite) and value distributions
+//   counters    monotonic totals (frames, faces, dropped ...) with their rate over the last interval
+//   gauges      current values (queue depths)
+// Components keep their own counters and histograms and register them here (e.g.
+// FramePipeline.registerWith); recording stays lock-free and allocation-free, so this is meant to be
+// left on. Everything is read only when a report is made.
+//
+//   -Dmetrics.port=9100        serve the report at http://<host>:9100/metrics
+//   -Dmetrics.file=metrics.jsonl  append the report as one JSON line every interval
+//   -Dmetrics.everySec=10      interval for rates and the file
+public class Metrics implements AutoCloseable {
+
+    private final String app;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final Map<String, LongSupplier> counters = new LinkedHashMap<>();
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+
+    // Counter values at the start of the current interval, for rates
+    private final Map<String, Long> previous = new LinkedHashMap<>();
+    private final Map<String, Double> rates = new LinkedHashMap<>();
+    private long previousNanos = startNanos;
+
+    private ScheduledExecutorService ticker;
+    private HttpServer server;
+    private String file;
+
+    public Metrics(String app) {
+        this.app = app;
+    }
+
+    // A registry that serves and dumps itself as -Dmetrics.* asks (see above)
+    public static Metrics fromSystemProperties(String app) {
+        Metrics metrics = new Metrics(app);
+        metrics.start(Integer.getInteger("metrics.port", 0), System.getProperty("metrics.file"),
+                Math.max(1, Integer.getInteger("metrics.everySec", 10)));
+        return metrics;
+    }
+
+    public synchronized Histogram histogram(String name, Histogram histogram) {
+        histograms.put(name, histogram);
+        return histogram;
+    }
+
+    // A new latency histogram registered under name
+    public Histogram latency(String name) {
+        return histogram(name, Histogram.latency());
+    }
+
+    public synchronized void counter(String name, LongSupplier value) {
+        counters.put(name, value);
+    }
+
+    public synchronized void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // port 0 serves nothing, a null file dumps nothing
+    public void start(int port, String file, int everySec) {
+        this.file = file;
+        if (port > 0) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(port), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = toJson().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.start();
+                System.out.println(" Metrics: http://localhost:" + port + "/metrics");
+            } catch (IOException e) {
+                System.err.println(" Cannot serve metrics on port " + port + ": " + e.getMessage());
+                server = null;
+            }
+        }
+        if (file != null) System.out.println(" Metrics: appended to " + file + " every " + everySec + " s");
+
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, everySec, everySec, TimeUnit.SECONDS);
+    }
+
+    // Closes the interval: updates the rates and appends the report to the file
+    private void tick() {
+        synchronized (this) {
+            long now = System.nanoTime();
+            double seconds = (now - previousNanos) / 1e9;
+            for (Map.Entry<String, LongSupplier> e : counters.entrySet()) {
+                long value = e.getValue().getAsLong();
+                long before = previous.getOrDefault(e.getKey(), 0L);
+                rates.put(e.getKey(), seconds > 0 ? (value - before) / seconds : 0);
+                previous.put(e.getKey(), value);
+            }
+            previousNanos = now;
+        }
+        dump();
+    }
+
+    private void dump() {
+        if (file == null) return;
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, StandardCharsets.UTF_8, true))) {
+            out.println(toJson());
+        } catch (IOException e) {
+            System.err.println(" Cannot write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"app\":\"").append(app).append('"');
+        json.append(",\"uptimeSec\":").append(number((System.nanoTime() - startNanos) / 1e9));
+
+        json.append(",\"counters\":{");
+        String sep = "";
+        for (Map.Entry<String, LongSupplier> e : counters.entrySet()) {
+            json.append(sep).append('"').append(e.getKey()).append("\":{\"total\":").append(e.getValue().getAsLong())
+                    .append(",\"perSec\":").append(number(rates.getOrDefault(e.getKey(), 0.0))).append('}');
+            sep = ",";
+        }
+
+        json.append("},\"gauges\":{");
+        sep = "";
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            json.append(sep).append('"').append(e.getKey()).append("\":").append(e.getValue().getAsLong());
+            sep = ",";
+        }
+
+        json.append("},\"histograms\":{");
+        sep = "";
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            json.append(sep).append('"').append(e.getKey()).append("\":{")
+                    .append("\"unit\":\"").append(h.unit()).append('"')
+                    .append(",\"count\":").append(h.count())
+                    .append(",\"mean\":").append(number(h.mean()))
+                    .append(",\"p10\":").append(number(h.percentile(0.10)))
+                    .append(",\"p50\":").append(number(h.percentile(0.50)))
+                    .append(",\"p90\":").append(number(h.percentile(0.90)))
+                    .append(",\"p99\":").append(number(h.percentile(0.99)))
+                    .append(",\"max\":").append(number(h.max())).append('}');
+            sep = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    // Stops serving and writes a last report covering the time since the previous one
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            tick();
+        }
+        if (server != null) server.stop(0);
+    }
+}
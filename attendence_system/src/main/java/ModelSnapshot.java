@@ -0,0 +1,193 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+import org.bytedeco.opencv.global.opencv_core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32C;
+
+// A trained LBPH model as raw binary instead of OpenCV's XML, saved next to it by TrainModel.
+// read() on the XML parses every histogram bin out of text; a snapshot is mapped, checked and its
+// floats copied in bulk into an LbpIndex, which computes LBPH's chi-square distance (in float rather
+// than LBPH's double, so a face right at the threshold can be decided differently). Only used when
+// an index is asked for (-Drecognizer.index); the default matcher stays OpenCV's LBPH.
+// (LBPH itself can only be filled through its own file formats, so there is no fast way back to
+// an LBPHFaceRecognizer; code that needs one, e.g. enrolment with update(), still reads the XML.)
+//
+//   int magic 'LBPS', int version, int radius, int neighbors, int gridX, int gridY,
+//   double threshold, int count, int histogramLength, int crc32c (of everything after the header),
+//   padding to 64 bytes
+//   count x int label, padding to 64 bytes
+//   count x histogramLength x float
+//
+// Numbers are little-endian, the byte order of every machine this runs on, so the bulk copy into
+// the index's native-order buffers is a plain memory copy.
+public class ModelSnapshot {
+
+    private static final int MAGIC = 0x4C425053; // "LBPS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    private final int radius;
+    private final int neighbors;
+    private final int gridX;
+    private final int gridY;
+    private final double threshold;
+    private final int count;
+    private final int histogramLength;
+    private final IntBuffer labels;
+    private final FloatBuffer histograms;
+
+    private ModelSnapshot(int radius, int neighbors, int gridX, int gridY, double threshold, int count,
+                          int histogramLength, IntBuffer labels, FloatBuffer histograms) {
+        this.radius = radius;
+        this.neighbors = neighbors;
+        this.gridX = gridX;
+        this.gridY = gridY;
+        this.threshold = threshold;
+        this.count = count;
+        this.histogramLength = histogramLength;
+        this.labels = labels;
+        this.histograms = histograms;
+    }
+
+    // trained_model.xml -> trained_model.lbps
+    public static String pathFor(String modelPath) {
+        int dot = modelPath.lastIndexOf('.');
+        int slash = Math.max(modelPath.lastIndexOf('/'), modelPath.lastIndexOf('\\'));
+        return (dot > slash ? modelPath.substring(0, dot) : modelPath) + ".lbps";
+    }
+
+    // The snapshot next to modelPath, or null if there is none, it is older than the model file (the
+    // model was saved by something else since) or it is damaged
+    public static ModelSnapshot loadIfCurrent(String modelPath) {
+        File snapshotFile = new File(pathFor(modelPath));
+        File modelFile = new File(modelPath);
+        if (!snapshotFile.exists()) return null;
+        if (modelFile.exists() && modelFile.lastModified() > snapshotFile.lastModified()) {
+            System.out.println(" " + snapshotFile + " is older than " + modelFile + ", reading the model instead");
+            return null;
+        }
+        try {
+            return load(snapshotFile.getPath());
+        } catch (IOException e) {
+            System.out.println(" Ignoring model snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static ModelSnapshot load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) throw new IOException(path + " is not a model snapshot");
+            if (length > Integer.MAX_VALUE) throw new IOException(path + " is larger than 2 GB");
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buf.getInt(0) != MAGIC) throw new IOException(path + " is not a model snapshot");
+            if (buf.getInt(4) != VERSION) {
+                throw new IOException(path + " has unsupported model snapshot version " + buf.getInt(4));
+            }
+            int count = buf.getInt(32);
+            int histogramLength = buf.getInt(36);
+            long labelsEnd = HEADER_BYTES + padded((long) count * Integer.BYTES);
+            if (count < 0 || histogramLength <= 0
+                    || labelsEnd + (long) count * histogramLength * Float.BYTES != length) {
+                throw new IOException(path + " is truncated or has a bad header");
+            }
+
+            CRC32C crc = new CRC32C();
+            crc.update(buf.slice(HEADER_BYTES, (int) length - HEADER_BYTES));
+            if ((int) crc.getValue() != buf.getInt(40)) throw new IOException(path + " fails its checksum");
+
+            IntBuffer labels = buf.slice(HEADER_BYTES, count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            FloatBuffer histograms = buf.slice((int) labelsEnd, (int) (length - labelsEnd))
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            return new ModelSnapshot(buf.getInt(8), buf.getInt(12), buf.getInt(16), buf.getInt(20),
+                    buf.getDouble(24), count, histogramLength, labels, histograms);
+        }
+    }
+
+    // Writes the model's histograms and labels; written to a temporary file first and then moved into place
+    public static void save(LBPHFaceRecognizer model, String path) throws IOException {
+        MatVector histogramMats = model.getHistograms();
+        Mat labelsMat = model.getLabels();
+        try {
+            int count = (int) histogramMats.size();
+            int histogramLength = count > 0 ? (int) histogramMats.get(0).total() : 0;
+            long labelsEnd = HEADER_BYTES + padded((long) count * Integer.BYTES);
+            long length = labelsEnd + (long) count * histogramLength * Float.BYTES;
+            if (length > Integer.MAX_VALUE) throw new IOException("Model is too large for a snapshot");
+
+            ByteBuffer buf = ByteBuffer.allocateDirect((int) length).order(ByteOrder.LITTLE_ENDIAN);
+            IntBuffer labelsIn = labelsMat.createBuffer();
+            for (int i = 0; i < count; i++) buf.putInt(HEADER_BYTES + i * Integer.BYTES, labelsIn.get(i));
+
+            FloatBuffer histograms = buf.slice((int) labelsEnd, (int) (length - labelsEnd))
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            for (int i = 0; i < count; i++) {
+                Mat histogram = histogramMats.get(i);
+                if (histogram.total() != histogramLength || histogram.type() != opencv_core.CV_32FC1) {
+                    throw new IOException("Model histograms differ in size or type");
+                }
+                histograms.put(i * histogramLength, (FloatBuffer) histogram.createBuffer(), 0, histogramLength);
+                histogram.close();
+            }
+
+            CRC32C crc = new CRC32C();
+            crc.update(buf.slice(HEADER_BYTES, (int) length - HEADER_BYTES));
+            buf.putInt(0, MAGIC).putInt(4, VERSION)
+                    .putInt(8, model.getRadius()).putInt(12, model.getNeighbors())
+                    .putInt(16, model.getGridX()).putInt(20, model.getGridY())
+                    .putDouble(24, model.getThreshold())
+                    .putInt(32, count).putInt(36, histogramLength).putInt(40, (int) crc.getValue());
+
+            File target = new File(path);
+            File tmp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) out.write(buf);
+                out.force(false);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            histogramMats.close();
+            labelsMat.close();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // The histograms copied straight from the mapping into an LbpIndex, optionally only those of
+    // the given labels; no LBPH model is built at all
+    public LbpIndex toIndex(BitSet allowedLabels) {
+        if (radius != LbpFeatures.RADIUS || neighbors != LbpFeatures.NEIGHBORS
+                || gridX != LbpFeatures.GRID_X || gridY != LbpFeatures.GRID_Y) {
+            throw new IllegalArgumentException("LbpIndex only supports radius 1, 8 neighbours and an 8x8 grid");
+        }
+        LbpIndex index = new LbpIndex(threshold);
+        for (int i = 0; i < count; i++) {
+            int label = labels.get(i);
+            if (allowedLabels != null && (label < 0 || !allowedLabels.get(label))) continue;
+            index.add(label, histograms, i * histogramLength);
+        }
+        return index;
+    }
+
+    private static long padded(long length) {
+        return (length + HEADER_BYTES - 1) / HEADER_BYTES * HEADER_BYTES;
+    }
+}
@@ -2,13 +2,12 @@ import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.global.opencv_highgui;
 import org.bytedeco.opencv.opencv_core.*;
-import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
 import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
-import org.bytedeco.opencv.opencv_videoio.VideoCapture;
 
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RecognizeFace {
 
@@ -25,86 +24,161 @@ public class RecognizeFace {
             return;
         }
 
-        // Load face recognizer
-        LBPHFaceRecognizer faceRecognizer = LBPHFaceRecognizer.create();
-        faceRecognizer.read(modelPath);
+        // Load face recognizer as -Drecognizer.* asks (see CourseRecognizer): LBPH by default
+        CourseRecognizer faceRecognizer = CourseRecognizer.openAll(modelPath);
 
         // Load Haar Cascade
         CascadeClassifier faceCascade = new CascadeClassifier(cascadePath);
         if (faceCascade.empty()) {
             System.out.println("❌ Haar Cascade file not found: " + cascadePath);
+            faceRecognizer.close();
             return;
         }
 
-        // Build mapping (label -> folder name)
-        Map<Integer, String> labelNames = new HashMap<>();
-        File facesDir = new File(facesPath);
-        File[] personDirs = facesDir.listFiles(File::isDirectory);
-
-        if (personDirs == null) {
-            System.out.println("❌ No folders found inside " + facesPath);
-            return;
-        }
+        // Label -> name as saved by TrainModel; models trained before labels were saved fall back to
+        // numbering the faces/ folders in listing order, which is how they were trained
+        Map<Integer, String> labelNames;
+        if (new File(TrainModel.LABELS_PATH).exists()) {
+            labelNames = LabelRegistry.loadOrEmpty(TrainModel.LABELS_PATH).asMap();
+        } else {
+            labelNames = new HashMap<>();
+            File facesDir = new File(facesPath);
+            File[] personDirs = facesDir.listFiles(File::isDirectory);
+
+            if (personDirs == null) {
+                System.out.println("❌ No folders found inside " + facesPath);
+                faceRecognizer.close();
+                return;
+            }
 
-        int labelCounter = 1;
-        for (File personDir : personDirs) {
-            labelNames.put(labelCounter, personDir.getName());
-            labelCounter++;
+            int labelCounter = 1;
+            for (File personDir : personDirs) {
+                labelNames.put(labelCounter, personDir.getName());
+                labelCounter++;
+            }
         }
-
-        // Start webcam
-        VideoCapture camera = new VideoCapture(0);
-        if (!camera.isOpened()) {
-            System.out.println("❌ Cannot open camera");
+        int maxLabel = 0;
+        for (int label : labelNames.keySet()) maxLabel = Math.max(maxLabel, label);
+
+        // Start webcam (or the recording / image folder given as the first argument)
+        FrameSource camera;
+        try {
+            camera = FrameSource.open(args.length > 0 ? args[0] : "webcam:0");
+        } catch (RuntimeException e) {
+            System.out.println("❌ Cannot open camera: " + e.getMessage());
+            faceRecognizer.close();
             return;
         }
+        boolean fast = FrameSource.fastMode();
 
+        // Label -> name as a plain array, so looking a name up per face does not box the label
+        String[] namesByLabel = new String[maxLabel + 1];
+        for (Map.Entry<Integer, String> e : labelNames.entrySet()) namesByLabel[e.getKey()] = e.getValue();
+
+        // Everything the loop needs is allocated here once and reused for every frame and face
         Mat frame = new Mat();
-        Mat gray = new Mat();
+        FrameScratch scratch = new FrameScratch();
+        DetectionProfile profile = DetectionProfile.fromSystemProperties();
+        Scalar green = new Scalar(0, 255, 0, 0);
+        AllocationCounter allocations = new AllocationCounter(Long.getLong("alloc.warmup", 100));
+
+        // Stage latencies, rates and the confidence distribution (see Metrics for -Dmetrics.*)
+        Metrics metrics = Metrics.fromSystemProperties("RecognizeFace");
+        Histogram grabTime = metrics.latency("grab");
+        Histogram convertTime = metrics.latency("cvtColor");
+        Histogram detectTime = metrics.latency("detect");
+        Histogram predictTime = metrics.latency("predict"); // all faces of a frame
+        Histogram confidences = metrics.histogram("confidence", new Histogram(10, ""));
+        LongAdder framesFailed = new LongAdder(); // reads that returned no frame; this loop never queues any
+        LongAdder recognizedFaces = new LongAdder();
+        metrics.counter("frames", grabTime::count);
+        metrics.counter("faces", recognizedFaces::sum);
+        metrics.counter("dropped.frames", framesFailed::sum);
+
+        // All faces of a frame are cropped and recognized in one call (see BatchRecognizer)
+        BatchRecognizer batchRecognizer = BatchRecognizer.fromSystemProperties(faceRecognizer);
+        FaceBatch batch = new FaceBatch(8);
+        System.out.println("🔹 Recognizer: " + batchRecognizer.describe());
+
+        // Unchanged, blurred or badly exposed frames are not searched (see FrameGate); the faces of
+        // the last searched frame stay on screen meanwhile
+        FrameGate gate = FrameGate.fromSystemProperties();
+        if (gate != null) gate.registerWith(metrics);
+        int count = 0;
 
         System.out.println("🎥 Starting recognition... Press 'q' to quit.");
 
         while (true) {
-            if (!camera.read(frame) || frame.empty()) continue;
-
-            opencv_imgproc.cvtColor(frame, gray, opencv_imgproc.COLOR_BGR2GRAY);
-            RectVector faces = new RectVector();
-            faceCascade.detectMultiScale(gray, faces);
-
-            for (int i = 0; i < faces.size(); i++) {
-                Rect faceRect = faces.get(i);
-                Mat face = new Mat(gray, faceRect);
-                opencv_imgproc.resize(face, face, new Size(200, 200));
-
-                int[] label = new int[1];
-                double[] confidence = new double[1];
-                faceRecognizer.predict(face, label, confidence);
-
-                String name;
-                if (confidence[0] < 80) {
-                    name = labelNames.getOrDefault(label[0], "Unknown");
-                } else {
-                    name = "Unknown";
+            long start = System.nanoTime();
+            if (!camera.read(frame)) {
+                if (camera.isFinished()) break;
+                framesFailed.increment();
+                continue;
+            }
+            start = grabTime.recordSince(start);
+            long mark = allocations.begin();
+
+            if (gate == null || gate.accept(frame)) {
+                start = System.nanoTime();
+                opencv_imgproc.cvtColor(frame, scratch.gray, opencv_imgproc.COLOR_BGR2GRAY);
+                start = convertTime.recordSince(start);
+                profile.detect(faceCascade, scratch);
+                detectTime.recordSince(start);
+
+                start = System.nanoTime();
+                count = batchRecognizer.predict(scratch, batch);
+                predictTime.recordSince(start);
+                recognizedFaces.add(count);
+                for (int i = 0; i < count; i++) confidences.record(batch.confidence(i));
+            }
+
+            for (int i = 0; i < count; i++) {
+                int label = batch.label(i);
+                double confidence = batch.confidence(i);
+                String name = "Unknown";
+                if (confidence < 80 && label >= 0 && label < namesByLabel.length && namesByLabel[label] != null) {
+                    name = namesByLabel[label];
                 }
 
                 // Draw rectangle & name
-                opencv_imgproc.rectangle(frame, faceRect, new Scalar(0, 255, 0, 0), 2, 8, 0);
+                Rect faceRect = scratch.rect(i);
+                scratch.textOrigin.x(faceRect.x()).y(faceRect.y() - 10);
+                opencv_imgproc.rectangle(frame, faceRect, green, 2, 8, 0);
+
+                scratch.text.setLength(0);
+                scratch.text.append(name).append(" (");
+                FrameScratch.appendOneDecimal(scratch.text, confidence);
+                scratch.text.append(')');
                 opencv_imgproc.putText(
                         frame,
-                        name + " (" + String.format("%.1f", confidence[0]) + ")",
-                        new Point(faceRect.x(), faceRect.y() - 10),
+                        scratch.nativeText(),
+                        scratch.textOrigin,
                         opencv_imgproc.FONT_HERSHEY_SIMPLEX,
                         0.7,
-                        new Scalar(0, 255, 0, 0)
+                        green
                 );
             }
+            allocations.end(mark, scratch.takeWrapperBytes());
+
+            if (fast) continue; // headless replay: no window, no waitKey pacing
 
             opencv_highgui.imshow("Face Recognition", frame);
 
             if (opencv_highgui.waitKey(20) == 'q') break;
         }
 
-        camera.release();
+        System.out.println("🔎 Allocations: " + allocations.summary());
+        metrics.close();
+        System.out.println("📈 Metrics: " + metrics.toJson());
+        if (gate != null) {
+            System.out.println("🔎 Frame gate: " + gate.summary());
+            gate.close();
+        }
+        batchRecognizer.close();
+        faceRecognizer.close();
+        batch.close();
+        scratch.close();
+        camera.close();
         opencv_highgui.destroyAllWindows();
         System.out.println("🟢 Recognition ended.");
     }
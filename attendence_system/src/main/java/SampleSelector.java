@@ -0,0 +1,130 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Decides which face crops are worth keeping as training samples, instead of saving one every
+// 200 ms whatever it looks like:
+//   sharpness  variance of the Laplacian of the crop; motion-blurred or out-of-focus faces score low
+//   novelty    how different the crop is from every sample kept so far, on a small normalised
+//              thumbnail; a head that has not moved scores ~0, a turn or tilt scores high
+// A crop is kept when both are above their thresholds, so the samples cover many poses and
+// expressions and a still face does not fill the folder with near-copies.
+//
+// Not thread-safe; one instance per capture loop.
+public class SampleSelector implements AutoCloseable {
+
+    // Crops are compared at this size; small enough that a comparison is a few hundred multiplies
+    private static final int THUMB = 24;
+    // Sharpness is measured at a fixed size so the threshold does not depend on how far away the face is
+    private static final int SHARPNESS_SIZE = 100;
+
+    private final double minSharpness;
+    private final double minNovelty;
+
+    private final List<float[]> kept = new ArrayList<>();
+    private final Mat resized = new Mat();
+    private final Mat laplacian = new Mat();
+    private final Mat mean = new Mat();
+    private final Mat stddev = new Mat();
+    private final Mat thumb = new Mat();
+    private final Size sharpnessSize = new Size(SHARPNESS_SIZE, SHARPNESS_SIZE);
+    private final Size thumbSize = new Size(THUMB, THUMB);
+    private final byte[] thumbPixels = new byte[THUMB * THUMB];
+
+    private float[] candidate;
+    private double lastSharpness;
+    private double lastNovelty;
+
+    // -Dcapture.minSharpness and -Dcapture.minNovelty override the defaults
+    public static SampleSelector fromSystemProperties() {
+        return new SampleSelector(
+                Double.parseDouble(System.getProperty("capture.minSharpness", "40")),
+                Double.parseDouble(System.getProperty("capture.minNovelty", "0.04")));
+    }
+
+    // minNovelty is 1 - cosine similarity of mean-free thumbnails, so in [0, 2]
+    public SampleSelector(double minSharpness, double minNovelty) {
+        this.minSharpness = minSharpness;
+        this.minNovelty = minNovelty;
+    }
+
+    // Scores a grayscale face crop. Returns true if it should be kept; call accept() once it is.
+    public boolean consider(Mat face) {
+        opencv_imgproc.resize(face, resized, sharpnessSize, 0, 0, opencv_imgproc.INTER_AREA);
+        opencv_imgproc.Laplacian(resized, laplacian, opencv_core.CV_64F);
+        opencv_core.meanStdDev(laplacian, mean, stddev);
+        double sd = stddev.ptr(0).getDouble();
+        lastSharpness = sd * sd;
+        lastNovelty = 0;
+        if (lastSharpness < minSharpness) return false;
+
+        candidate = thumbnail(face);
+        lastNovelty = kept.isEmpty() ? 2 : 1 - maxSimilarity(candidate);
+        return lastNovelty >= minNovelty;
+    }
+
+    // Remembers the crop last passed to consider() as kept
+    public void accept() {
+        if (candidate != null) kept.add(candidate);
+        candidate = null;
+    }
+
+    public double minSharpness() {
+        return minSharpness;
+    }
+
+    public double lastSharpness() {
+        return lastSharpness;
+    }
+
+    public double lastNovelty() {
+        return lastNovelty;
+    }
+
+    // Mean-free, unit-length thumbnail, so the dot product of two is their correlation and
+    // lighting changes alone do not count as new
+    private float[] thumbnail(Mat face) {
+        opencv_imgproc.resize(face, thumb, thumbSize, 0, 0, opencv_imgproc.INTER_AREA);
+        thumb.data().get(thumbPixels);
+        float[] v = new float[THUMB * THUMB];
+        double sum = 0;
+        for (int i = 0; i < v.length; i++) {
+            v[i] = thumbPixels[i] & 0xFF;
+            sum += v[i];
+        }
+        float avg = (float) (sum / v.length);
+        double norm = 0;
+        for (int i = 0; i < v.length; i++) {
+            v[i] -= avg;
+            norm += v[i] * v[i];
+        }
+        float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 0;
+        for (int i = 0; i < v.length; i++) v[i] *= scale;
+        return v;
+    }
+
+    private double maxSimilarity(float[] v) {
+        double best = -1;
+        for (float[] k : kept) {
+            double dot = 0;
+            for (int i = 0; i < v.length; i++) dot += v[i] * k[i];
+            if (dot > best) best = dot;
+        }
+        return best;
+    }
+
+    @Override
+    public void close() {
+        resized.close();
+        laplacian.close();
+        mean.close();
+        stddev.close();
+        thumb.close();
+        sharpnessSize.close();
+        thumbSize.close();
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.BitSet;
+
+// Decides when an attendance session is over, instead of always running a fixed two minutes:
+//   everyone marked  every student enrolled in the course is marked -> stop at once
+//   plateau          past -Dsession.minSec, nothing has happened for -Dsession.quietSec -> stop
+//   hard limit       -Dsession.maxSec
+// "Something happened" means a student was marked, or a student who is not marked yet was
+// recognized (their hits are adding up). Recognitions of students already marked do not count,
+// so a full, quiet classroom ends early, while late arrivals keep extending the session past the
+// old fixed length. -Dsession.adaptive=false runs exactly -Dsession.nominalSec instead.
+//
+// The roster comes from the enrollments table (see ConnectionPool); without it only the plateau and
+// the limit apply. summary() reports the time saved against the nominal length. Thread-safe.
+public class SessionController {
+
+    private final AttendanceSession session;
+    private final BitSet roster;   // enrolled labels, or null
+    private final boolean adaptive;
+    private final long nominalMs;
+    private final long minMs;
+    private final long quietMs;
+    private final long maxMs;
+
+    private int unmarked;
+    private long startMs;
+    private long lastActivityMs;
+    private long endMs;
+    private String reason;
+    private int marks;
+
+    public SessionController(AttendanceSession session, BitSet roster, boolean adaptive,
+                             long nominalSec, long minSec, long quietSec, long maxSec) {
+        this.session = session;
+        this.roster = roster != null && !roster.isEmpty() ? roster : null;
+        this.adaptive = adaptive;
+        this.nominalMs = nominalSec * 1000;
+        this.minMs = minSec * 1000;
+        this.quietMs = quietSec * 1000;
+        this.maxMs = Math.max(maxSec, nominalSec) * 1000;
+        if (this.roster != null) {
+            for (int label = this.roster.nextSetBit(0); label >= 0; label = this.roster.nextSetBit(label + 1)) {
+                if (!session.isMarked(label)) unmarked++;
+            }
+        }
+    }
+
+    // The roster is read through the connection; -Dsession.* as described above
+    public static SessionController fromSystemProperties(PooledConnection conn, AttendanceSession session,
+                                                         LabelRegistry labels) {
+        BitSet roster = ShardedRecognizer.enrolledLabels(conn, session.courseId(), labels);
+        return new SessionController(session, roster,
+                Boolean.parseBoolean(System.getProperty("session.adaptive", "true")),
+                Long.getLong("session.nominalSec", 120),
+                Long.getLong("session.minSec", 30),
+                Long.getLong("session.quietSec", 30),
+                Long.getLong("session.maxSec", 600));
+    }
+
+    public synchronized void start() {
+        startMs = System.currentTimeMillis();
+        lastActivityMs = startMs;
+    }
+
+    // A confident recognition of the label
+    public synchronized void recognized(int label) {
+        if (!session.isMarked(label) && session.name(label) != null) lastActivityMs = System.currentTimeMillis();
+    }
+
+    // The label's student was just marked
+    public synchronized void marked(int label) {
+        marks++;
+        lastActivityMs = System.currentTimeMillis();
+        if (roster != null && roster.get(label)) unmarked--;
+    }
+
+    // True once the session should end; the reason is kept for summary()
+    public synchronized boolean shouldStop() {
+        if (reason != null) return true;
+        long now = System.currentTimeMillis();
+        long elapsed = now - startMs;
+        if (!adaptive) {
+            if (elapsed >= nominalMs) reason = "fixed length";
+        } else if (roster != null && unmarked <= 0) {
+            reason = "every enrolled student marked";
+        } else if (elapsed >= maxMs) {
+            reason = "time limit";
+        } else if (elapsed >= minMs && now - lastActivityMs >= quietMs) {
+            reason = "no new students for " + quietMs / 1000 + " s";
+        }
+        if (reason != null) endMs = now;
+        return reason != null;
+    }
+
+    // Ends the session from outside (source finished, interrupted)
+    public synchronized void stop(String why) {
+        if (reason != null) return;
+        reason = why;
+        endMs = System.currentTimeMillis();
+    }
+
+    // Milliseconds the session was shorter than the nominal length (negative when it ran longer)
+    public synchronized long savedMs() {
+        return nominalMs - ((endMs > 0 ? endMs : System.currentTimeMillis()) - startMs);
+    }
+
+    // e.g. "ended after 41 s (every enrolled student marked): 12 marked, 0 of 25 enrolled still absent, 79 s saved"
+    public synchronized String summary() {
+        long ranMs = (endMs > 0 ? endMs : System.currentTimeMillis()) - startMs;
+        long saved = savedMs();
+        return "ended after " + ranMs / 1000 + " s (" + (reason != null ? reason : "running") + "): " + marks + " marked"
+                + (roster != null ? ", " + Math.max(0, unmarked) + " of " + roster.cardinality() + " enrolled still absent" : "")
+                + ", " + (saved >= 0 ? saved / 1000 + " s saved" : -saved / 1000 + " s longer")
+                + " against the fixed " + nominalMs / 1000 + " s";
+    }
+
+    public void registerWith(Metrics metrics) {
+        metrics.gauge("session.marked", () -> { synchronized (this) { return marks; } });
+        if (roster != null) metrics.gauge("session.absent", () -> { synchronized (this) { return Math.max(0, unmarked); } });
+    }
+
+    // Time limit, for "Attendance will run ..." messages
+    public String describe() {
+        if (!adaptive) return "for " + nominalMs / 1000 + " seconds";
+        return "until " + (roster != null ? "all " + roster.cardinality() + " enrolled students are marked or " : "")
+                + "no new student is seen for " + quietMs / 1000 + " s (at least " + minMs / 1000
+                + " s, at most " + maxMs / 1000 + " s)";
+    }
+}
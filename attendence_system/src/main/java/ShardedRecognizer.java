@@ -0,0 +1,300 @@
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.opencv_core.FileNode;
+import org.bytedeco.opencv.opencv_core.FileStorage;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+import org.bytedeco.opencv.global.opencv_core;
+
+import java.nio.IntBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// One LBPH model split into several smaller ones by label range. LBPH predict compares the face with
+// every training histogram, so a whole-campus model is slow; here every shard scans its part on its
+// own thread and the closest match wins. The caller's thread scans the first shard itself.
+//
+// restrictTo() builds a copy holding only some labels (e.g. the students enrolled in one course),
+// which makes every predict cheaper still. Shards are rebuilt from the trained histograms, so
+// nothing has to be retrained or decoded again.
+//
+// predict is safe to call from several threads at once and allocates nothing once each calling
+// thread has made its first call.
+public class ShardedRecognizer implements FaceMatcher, AutoCloseable {
+
+    private final LBPHFaceRecognizer[] shards;
+    private final int[] firstLabel;
+    private final int[] lastLabel;
+    private final int histograms;
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<Fanout> fanouts = ThreadLocal.withInitial(Fanout::new);
+
+    private ShardedRecognizer(LBPHFaceRecognizer[] shards, int[] firstLabel, int[] lastLabel, int histograms) {
+        this.shards = shards;
+        this.firstLabel = firstLabel;
+        this.lastLabel = lastLabel;
+        this.histograms = histograms;
+        if (shards.length > 1) {
+            // A bounded array queue, so handing a shard to a worker does not allocate a queue node
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(shards.length - 1, shards.length - 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(1024), r -> {
+                        Thread t = new Thread(r, "shard-" + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.prestartAllCoreThreads();
+        } else {
+            executor = null;
+        }
+    }
+
+    // Splits a trained model into (up to) shardCount models of about the same number of histograms.
+    // All histograms of one label stay in the same shard.
+    public static ShardedRecognizer split(LBPHFaceRecognizer model, int shardCount) {
+        MatVector histograms = model.getHistograms();
+        Mat labelsMat = model.getLabels();
+        int[] labels = new int[(int) labelsMat.total()];
+        ((IntBuffer) labelsMat.createBuffer()).get(labels);
+
+        List<Integer> all = new ArrayList<>(labels.length);
+        for (int i = 0; i < labels.length; i++) all.add(i);
+        ShardedRecognizer sharded = build(model, histograms, labels, all, shardCount);
+        histograms.close();
+        labelsMat.close();
+        return sharded;
+    }
+
+    // A new recognizer with the same number of shards that only knows the given labels
+    public ShardedRecognizer restrictTo(BitSet allowedLabels) {
+        // Gather the kept histograms from every shard into one list, then split them again
+        MatVector kept = new MatVector();
+        List<Integer> keptLabels = new ArrayList<>();
+        List<MatVector> owners = new ArrayList<>();
+        for (LBPHFaceRecognizer shard : shards) {
+            MatVector histograms = shard.getHistograms();
+            Mat labelsMat = shard.getLabels();
+            IntBuffer labels = labelsMat.createBuffer();
+            for (int i = 0; i < histograms.size(); i++) {
+                int label = labels.get(i);
+                if (label >= 0 && allowedLabels.get(label)) {
+                    kept.push_back(histograms.get(i));
+                    keptLabels.add(label);
+                }
+            }
+            owners.add(histograms);
+            labelsMat.close();
+        }
+
+        int[] labels = new int[keptLabels.size()];
+        List<Integer> all = new ArrayList<>(labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = keptLabels.get(i);
+            all.add(i);
+        }
+        try {
+            return build(shards[0], kept, labels, all, shards.length);
+        } finally {
+            kept.close();
+            for (MatVector owner : owners) owner.close();
+        }
+    }
+
+    // The labels of the students enrolled in a course, from the enrollments(student_id, course_id)
+    // table (DDL in ConnectionPool). Returns null when the course cannot be narrowed down this way
+    // (no such table).
+    public static BitSet enrolledLabels(PooledConnection conn, int courseId, LabelRegistry registry) {
+        BitSet labels = new BitSet();
+        try {
+            PreparedStatement ps = conn.prepare("SELECT student_id FROM enrollments WHERE course_id = ?");
+            ps.setInt(1, courseId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int label = registry.labelOfStudent(rs.getInt("student_id"));
+                    if (label >= 0) labels.set(label);
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(" No course enrollments available (" + e.getMessage() + "), searching all students");
+            return null;
+        }
+        return labels;
+    }
+
+    @Override
+    public void predict(Mat face, int[] label, double[] confidence) {
+        Fanout fanout = fanouts.get();
+        fanout.face = face;
+        fanout.remaining.set(shards.length - 1);
+        for (int i = 1; i < shards.length; i++) executor.execute(fanout.tasks[i]);
+
+        // This thread takes the first shard while the workers scan the rest
+        try {
+            shards[0].predict(face, fanout.label[0], fanout.distance[0]);
+        } catch (RuntimeException e) {
+            fanout.label[0][0] = -1;
+            fanout.failure = e;
+        }
+        while (fanout.remaining.get() > 0) LockSupport.park(this);
+        fanout.face = null;
+
+        RuntimeException failure = fanout.failure;
+        if (failure != null) {
+            fanout.failure = null;
+            throw failure;
+        }
+
+        // Merge by minimum distance; a shard with nothing under the threshold reports -1
+        int bestLabel = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < shards.length; i++) {
+            if (fanout.label[i][0] >= 0 && fanout.distance[i][0] < bestDistance) {
+                bestLabel = fanout.label[i][0];
+                bestDistance = fanout.distance[i][0];
+            }
+        }
+        label[0] = bestLabel;
+        confidence[0] = bestDistance;
+    }
+
+    public int shards() {
+        return shards.length;
+    }
+
+    public int histograms() {
+        return histograms;
+    }
+
+    // e.g. "3 shards, 1050 histograms, labels 1-5 | 6-10 | 11-15"
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(shards.length).append(shards.length == 1 ? " shard, " : " shards, ")
+                .append(histograms).append(" histograms, labels ");
+        for (int i = 0; i < shards.length; i++) {
+            if (i > 0) sb.append(" | ");
+            sb.append(firstLabel[i]).append('-').append(lastLabel[i]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) executor.shutdownNow();
+        for (LBPHFaceRecognizer shard : shards) shard.close();
+    }
+
+    // Per calling thread: the shard tasks and where they leave their answers
+    private final class Fanout {
+        final Thread caller = Thread.currentThread();
+        final int[][] label = new int[shards.length][1];
+        final double[][] distance = new double[shards.length][1];
+        final AtomicInteger remaining = new AtomicInteger();
+        final Runnable[] tasks = new Runnable[shards.length];
+        volatile Mat face;
+        volatile RuntimeException failure;
+
+        Fanout() {
+            for (int i = 1; i < shards.length; i++) {
+                int shard = i;
+                tasks[i] = () -> scan(shard);
+            }
+        }
+
+        private void scan(int shard) {
+            try {
+                shards[shard].predict(face, label[shard], distance[shard]);
+            } catch (RuntimeException e) {
+                label[shard][0] = -1;
+                failure = e;
+            } finally {
+                if (remaining.decrementAndGet() == 0) LockSupport.unpark(caller);
+            }
+        }
+    }
+
+    private static ShardedRecognizer build(LBPHFaceRecognizer params, MatVector histograms, int[] labels,
+                                           List<Integer> indices, int shardCount) {
+        if (indices.isEmpty()) throw new IllegalArgumentException("No training histograms to shard");
+
+        // Histograms per label, in label order, so shards can be cut on label boundaries
+        TreeMap<Integer, List<Integer>> byLabel = new TreeMap<>();
+        for (int index : indices) byLabel.computeIfAbsent(labels[index], l -> new ArrayList<>()).add(index);
+        shardCount = Math.max(1, Math.min(shardCount, byLabel.size()));
+
+        List<List<Integer>> parts = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        int taken = 0;
+        for (var entry : byLabel.entrySet()) {
+            if (current.isEmpty()) starts.add(entry.getKey());
+            current.addAll(entry.getValue());
+            taken += entry.getValue().size();
+            // Close this shard once it holds its share of the histograms
+            if (parts.size() < shardCount - 1 && taken >= (long) indices.size() * (parts.size() + 1) / shardCount) {
+                parts.add(current);
+                ends.add(entry.getKey());
+                current = new ArrayList<>();
+            }
+        }
+        if (!current.isEmpty()) {
+            parts.add(current);
+            ends.add(byLabel.lastKey());
+        }
+
+        LBPHFaceRecognizer[] shards = new LBPHFaceRecognizer[parts.size()];
+        int[] firstLabel = new int[parts.size()];
+        int[] lastLabel = new int[parts.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = shardOf(params, histograms, labels, parts.get(i));
+            firstLabel[i] = starts.get(i);
+            lastLabel[i] = ends.get(i);
+        }
+        return new ShardedRecognizer(shards, firstLabel, lastLabel, indices.size());
+    }
+
+    // LBPH has no setter for its histograms, so the shard is written out in the model file layout
+    // (in memory, base64) and read back into a fresh recognizer with the same LBP settings
+    private static LBPHFaceRecognizer shardOf(LBPHFaceRecognizer params, MatVector histograms, int[] labels,
+                                              List<Integer> part) {
+        Mat shardLabels = new Mat(part.size(), 1, opencv_core.CV_32SC1);
+        IntBuffer labelsBuf = shardLabels.createBuffer();
+        for (int i = 0; i < part.size(); i++) labelsBuf.put(i, labels[part.get(i)]);
+
+        FileStorage out = new FileStorage(".yml",
+                FileStorage.WRITE | FileStorage.MEMORY | FileStorage.FORMAT_YAML | FileStorage.BASE64);
+        out.startWriteStruct("opencv_lbphfaces", FileNode.MAP);
+        opencv_core.write(out, "threshold", params.getThreshold());
+        opencv_core.write(out, "radius", params.getRadius());
+        opencv_core.write(out, "neighbors", params.getNeighbors());
+        opencv_core.write(out, "grid_x", params.getGridX());
+        opencv_core.write(out, "grid_y", params.getGridY());
+        out.startWriteStruct("histograms", FileNode.SEQ);
+        for (int index : part) opencv_core.write(out, "", histograms.get(index));
+        out.endWriteStruct();
+        opencv_core.write(out, "labels", shardLabels);
+        out.endWriteStruct();
+        BytePointer text = out.releaseAndGetString();
+        out.close();
+        shardLabels.close();
+
+        FileStorage in = new FileStorage(text, FileStorage.READ | FileStorage.MEMORY);
+        LBPHFaceRecognizer shard = LBPHFaceRecognizer.create(params.getRadius(), params.getNeighbors(),
+                params.getGridX(), params.getGridY(), params.getThreshold());
+        shard.read(in.getFirstTopLevelNode());
+        in.release();
+        in.close();
+        text.close();
+        return shard;
+    }
+}
@@ -0,0 +1,144 @@
+import org.bytedeco.opencv.opencv_core.*;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.global.opencv_imgproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Generates frames without a camera: a noisy background with face crops from the dataset pasted
+// onto it. A handful of frames is rendered up front and then cycled, so reading is just a copy.
+public class SyntheticFrameSource implements FrameSource {
+
+    private static final int VARIANTS = 8;
+
+    private final Mat[] variants;
+    private final List<Mat> faceSamples;
+    private final long frameLimit;
+    private long produced;
+
+    // Takes ownership of faceSamples: they are closed with the source
+    public SyntheticFrameSource(int width, int height, long frameLimit, int facesPerFrame, List<Mat> faceSamples, long seed) {
+        this.faceSamples = faceSamples;
+        this.frameLimit = frameLimit;
+        this.variants = new Mat[VARIANTS];
+
+        Random random = new Random(seed);
+        byte[] noise = new byte[width * height * 3];
+        for (int v = 0; v < VARIANTS; v++) {
+            random.nextBytes(noise);
+            Mat frame = new Mat(height, width, opencv_core.CV_8UC3);
+            frame.data().put(noise);
+            opencv_imgproc.GaussianBlur(frame, frame, new Size(5, 5), 0);
+
+            if (!faceSamples.isEmpty()) {
+                pasteFaces(frame, facesPerFrame, faceSamples, random);
+            }
+            variants[v] = frame;
+        }
+    }
+
+    // Spec: WIDTHxHEIGHT[,frames=N][,faces=N][,dir=faces][,seed=N]
+    public static SyntheticFrameSource fromSpec(String spec) {
+        String[] parts = spec.split(",");
+        String[] size = parts[0].split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        long frames = Long.MAX_VALUE;
+        int faces = 0;
+        String dir = "faces";
+        long seed = 42;
+
+        for (int i = 1; i < parts.length; i++) {
+            String[] kv = parts[i].split("=", 2);
+            switch (kv[0]) {
+                case "frames" -> frames = Long.parseLong(kv[1]);
+                case "faces" -> faces = Integer.parseInt(kv[1]);
+                case "dir" -> dir = kv[1];
+                case "seed" -> seed = Long.parseLong(kv[1]);
+                default -> throw new IllegalArgumentException("Unknown synthetic option: " + parts[i]);
+            }
+        }
+
+        List<Mat> samples = faces > 0 ? loadSamples(new File(dir), faces * VARIANTS) : new ArrayList<>();
+        return new SyntheticFrameSource(width, height, frames, faces, samples, seed);
+    }
+
+    // Reads up to `limit` face crops from faces/<person>/*.jpg
+    public static List<Mat> loadSamples(File facesDir, int limit) {
+        List<Mat> samples = new ArrayList<>();
+        File[] people = facesDir.listFiles(File::isDirectory);
+        if (people == null) return samples;
+        Arrays.sort(people);
+
+        for (int round = 0; samples.size() < limit; round++) {
+            boolean any = false;
+            for (File person : people) {
+                File[] images = person.listFiles((d, name) -> name.endsWith(".jpg") || name.endsWith(".png"));
+                if (images == null || round >= images.length) continue;
+                Arrays.sort(images);
+                Mat img = opencv_imgcodecs.imread(images[round].getAbsolutePath(), opencv_imgcodecs.IMREAD_GRAYSCALE);
+                if (!img.empty()) samples.add(img);
+                else img.close();
+                any = true;
+                if (samples.size() >= limit) break;
+            }
+            if (!any) break;
+        }
+        return samples;
+    }
+
+    // Lays faces out on a grid so they do not overlap
+    private static void pasteFaces(Mat frame, int count, List<Mat> samples, Random random) {
+        int cols = (int) Math.ceil(Math.sqrt(count));
+        int rows = (int) Math.ceil(count / (double) cols);
+        int cellW = frame.cols() / cols;
+        int cellH = frame.rows() / rows;
+        int maxSide = Math.min(cellW, cellH);
+        if (maxSide < 24) return;
+
+        Mat resized = new Mat();
+        Mat bgr = new Mat();
+        for (int i = 0; i < count; i++) {
+            int side = maxSide / 2 + random.nextInt(maxSide / 2);
+            int x = (i % cols) * cellW + random.nextInt(cellW - side + 1);
+            int y = (i / cols) * cellH + random.nextInt(cellH - side + 1);
+
+            opencv_imgproc.resize(samples.get(random.nextInt(samples.size())), resized, new Size(side, side));
+            opencv_imgproc.cvtColor(resized, bgr, opencv_imgproc.COLOR_GRAY2BGR);
+            Mat target = new Mat(frame, new Rect(x, y, side, side));
+            bgr.copyTo(target);
+            target.close();
+        }
+        resized.close();
+        bgr.close();
+    }
+
+    @Override
+    public synchronized boolean read(Mat frame) {
+        if (produced >= frameLimit) return false;
+        variants[(int) (produced++ % VARIANTS)].copyTo(frame);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean skip(Mat scratch) {
+        if (produced >= frameLimit) return false;
+        produced++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isFinished() {
+        return produced >= frameLimit;
+    }
+
+    @Override
+    public void close() {
+        for (Mat m : variants) m.close();
+        for (Mat m : faceSamples) m.close();
+    }
+}
@@ -1,78 +1,229 @@
-import org.bytedeco.opencv.global.opencv_core;
-import org.bytedeco.opencv.global.opencv_imgcodecs;
-import org.bytedeco.opencv.global.opencv_imgproc;
-import org.bytedeco.opencv.opencv_core.*;
 import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
 
 import java.io.File;
-import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.sql.SQLException;
+import java.util.Arrays;
 
 public class TrainModel {
 
+    public static final String MODEL_PATH = "trained_model.xml";
+    public static final String LABELS_PATH = "trained_labels.bin";
+    public static final String PACKED_PATH = FaceDataset.DEFAULT_PATH;
+
+    // TrainModel                 retrain on everything in faces.fds if it exists, else under faces/
+    // TrainModel --pack          pack faces/ into faces.fds (see FaceDataset)
+    // TrainModel --enroll <name> add faces/<name>/ to the existing model without retraining everyone
+    // TrainModel --enroll <name> <image> ...  add just these images; the only form for someone already
+    //                            enrolled, since the model does not record which of their images it holds
     public static void main(String[] args) {
         String datasetPath = "faces"; // Main folder with subfolders person1, person2, etc.
 
-        List<Mat> images = new ArrayList<>();
-        List<Integer> labelsList = new ArrayList<>();
+        if (args.length == 1 && args[0].equals("--pack")) {
+            long start = System.currentTimeMillis();
+            try {
+                int samples = FaceDataset.pack(new File(datasetPath), PACKED_PATH, DatasetLoader.fromSystemProperties());
+                System.out.println(" Packed " + samples + " images into " + PACKED_PATH + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                System.err.println(" Could not pack " + datasetPath + " into " + PACKED_PATH);
+                e.printStackTrace();
+            } catch (IllegalStateException e) {
+                System.err.println(" Could not pack " + datasetPath + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
 
+        if (args.length >= 2 && args[0].equals("--enroll")) {
+            File[] imageFiles;
+            if (args.length > 2) {
+                imageFiles = new File[args.length - 2];
+                for (int i = 2; i < args.length; i++) imageFiles[i - 2] = new File(args[i]);
+            } else {
+                if (LabelRegistry.loadOrEmpty(LABELS_PATH).contains(args[1])) {
+                    System.out.println(" " + args[1] + " is already enrolled; list the new images to add:"
+                            + " TrainModel --enroll " + args[1] + " <image> ...");
+                    return;
+                }
+                imageFiles = DatasetLoader.imagesIn(new File(datasetPath, args[1]));
+            }
+            enroll(args[1], -1, imageFiles);
+            return;
+        }
+
+        // Existing people keep their labels; new folders get the next free ones
+        LabelRegistry registry = LabelRegistry.loadOrEmpty(LABELS_PATH);
+        LBPHFaceRecognizer faceRecognizer = new File(PACKED_PATH).exists()
+                ? trainPacked(PACKED_PATH, registry)
+                : train(datasetPath, registry);
+        if (faceRecognizer == null) return;
+
+        // Save the trained model
+        faceRecognizer.save(MODEL_PATH);
+        saveSnapshot(faceRecognizer);
+        saveLabels(registry);
+        System.out.println(" Model trained and saved successfully as '" + MODEL_PATH + "'");
+    }
+
+    // Loads every image under datasetPath and trains an LBPH recognizer on it. Returns null if nothing was found.
+    public static LBPHFaceRecognizer train(String datasetPath) {
+        return train(datasetPath, new LabelRegistry());
+    }
+
+    public static LBPHFaceRecognizer train(String datasetPath, LabelRegistry registry) {
         File mainDir = new File(datasetPath);
         File[] personFolders = mainDir.listFiles(File::isDirectory);
 
         if (personFolders == null || personFolders.length == 0) {
             System.out.println(" No person folders found inside " + datasetPath);
-            return;
+            return null;
         }
 
-        int label = 0;
-        for (File personFolder : personFolders) {
-            label++; // assign an incremental numeric label
-            File[] imageFiles = personFolder.listFiles((dir, name) -> name.endsWith(".jpg") || name.endsWith(".png"));
+        // Sorted so new people are numbered the same way on every machine
+        Arrays.sort(personFolders);
+        int[] labels = new int[personFolders.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = registry.labelFor(personFolders[i].getName());
+        }
 
-            if (imageFiles == null) continue;
+        // Decode and resize in parallel, straight into the MatVector / labels Mat used for training
+        long start = System.currentTimeMillis();
+        DatasetLoader.Dataset dataset;
+        try {
+            dataset = DatasetLoader.fromSystemProperties().load(personFolders, labels);
+        } catch (IllegalStateException e) {
+            System.out.println(" " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
 
-            for (File imageFile : imageFiles) {
-                Mat img = opencv_imgcodecs.imread(imageFile.getAbsolutePath(), opencv_imgcodecs.IMREAD_GRAYSCALE);
-                if (img.empty()) {
-                    System.out.println("Could not read: " + imageFile.getAbsolutePath());
-                    continue;
-                }
+        if (dataset == null) {
+            System.out.println(" No valid images found for training.");
+            return null;
+        }
+        System.out.println(" Loaded " + dataset.size() + " images of " + personFolders.length + " people in "
+                + (System.currentTimeMillis() - start) + " ms");
 
-                opencv_imgproc.resize(img, img, new Size(200, 200));
-                images.add(img);
-                labelsList.add(label);
-            }
+        // Train LBPH recognizer
+        LBPHFaceRecognizer faceRecognizer = LBPHFaceRecognizer.create();
 
-            System.out.println(" Loaded " + images.size() + " images so far (Person label: " + label + ")");
-        }
+        System.out.println("🔹 Training model on " + dataset.size() + " images...");
+        faceRecognizer.train(dataset.images(), dataset.labels());
+        dataset.images().close();
+        dataset.labels().close();
+        return faceRecognizer;
+    }
 
-        if (images.isEmpty()) {
-            System.out.println(" No valid images found for training.");
-            return;
+    // Trains on a packed dataset: the file is mapped and read once front to back, and OpenCV gets Mat
+    // headers over the mapping, so no image is decoded or copied. Returns null if it holds no samples.
+    public static LBPHFaceRecognizer trainPacked(String packedPath, LabelRegistry registry) {
+        long start = System.currentTimeMillis();
+        FaceDataset packed;
+        try {
+            packed = FaceDataset.open(packedPath);
+        } catch (IOException e) {
+            System.err.println(" Could not read " + packedPath + ": " + e.getMessage());
+            return null;
+        }
+        if (packed.size() == 0) {
+            System.out.println(" No samples in " + packedPath);
+            return null;
         }
+        packed.preload();
+        DatasetLoader.Dataset dataset = packed.toTrainingSet(registry);
+        System.out.println(" Loaded " + dataset.size() + " images of " + packed.people() + " people from "
+                + packedPath + " in " + (System.currentTimeMillis() - start) + " ms");
+
+        LBPHFaceRecognizer faceRecognizer = LBPHFaceRecognizer.create();
+        System.out.println("🔹 Training model on " + dataset.size() + " images...");
+        faceRecognizer.train(dataset.images(), dataset.labels());
+        dataset.images().close();
+        dataset.labels().close();
+        // The Mats point into the mapping; it must not be unmapped before train() is done with them
+        Reference.reachabilityFence(packed);
+        return faceRecognizer;
+    }
 
-        // Convert labels list to Mat
-        Mat labels = new Mat(labelsList.size(), 1, opencv_core.CV_32SC1);
-        IntBuffer labelsBuf = labels.createBuffer();
-        for (int i = 0; i < labelsList.size(); i++) {
-            labelsBuf.put(i, labelsList.get(i));
+    // Adds one person's images to the saved model with LBPH update(), so the cost depends on the new
+    // images only. The person keeps their label if they were enrolled before (their new images are
+    // added to the old ones); otherwise they get the next free label. Pass studentId -1 if it is not
+    // known and it is looked up by name. Returns false if nothing changed.
+    public static boolean enroll(String name, int studentId, File[] imageFiles) {
+        if (!new File(MODEL_PATH).exists() || !new File(LABELS_PATH).exists()) {
+            System.out.println(" No trained model/labels yet; run TrainModel once to train on everyone.");
+            return false;
+        }
+        if (imageFiles.length == 0) {
+            System.out.println(" No images to enroll for " + name);
+            return false;
         }
 
-        // Convert images list to MatVector
-        MatVector matVector = new MatVector(images.size());
-        for (int i = 0; i < images.size(); i++) {
-            matVector.put(i, images.get(i));
+        LabelRegistry registry = LabelRegistry.loadOrEmpty(LABELS_PATH);
+        int label = registry.labelFor(name, studentId);
+
+        DatasetLoader.Dataset dataset;
+        try {
+            dataset = DatasetLoader.fromSystemProperties().load(imageFiles, label);
+        } catch (IllegalStateException e) {
+            System.out.println(" " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (dataset == null) {
+            System.out.println(" No valid images found for " + name);
+            return false;
         }
 
-        // Train LBPH recognizer
         LBPHFaceRecognizer faceRecognizer = LBPHFaceRecognizer.create();
+        faceRecognizer.read(MODEL_PATH);
+
+        System.out.println("🔹 Enrolling " + name + " (label " + label + ") from " + dataset.size() + " images...");
+        faceRecognizer.update(dataset.images(), dataset.labels());
+        dataset.images().close();
+        dataset.labels().close();
+
+        faceRecognizer.save(MODEL_PATH);
+        saveSnapshot(faceRecognizer);
+        if (!saveLabels(registry)) return false;
+        System.out.println(" " + name + " enrolled; model saved as '" + MODEL_PATH + "'");
+        return true;
+    }
+
+    // The binary copy of the model that attendance loads instead of parsing the XML (see ModelSnapshot).
+    // Saved after the XML, so a snapshot that is newer than the model always matches it.
+    private static void saveSnapshot(LBPHFaceRecognizer faceRecognizer) {
+        String path = ModelSnapshot.pathFor(MODEL_PATH);
+        try {
+            ModelSnapshot.save(faceRecognizer, path);
+        } catch (IOException e) {
+            System.err.println(" Could not save model snapshot to " + path + ": " + e.getMessage());
+            new File(path).delete(); // an older snapshot would no longer match the model
+        }
+    }
 
-        System.out.println("🔹 Training model on " + images.size() + " images...");
-        faceRecognizer.train(matVector, labels);
+    private static boolean saveLabels(LabelRegistry registry) {
+        // Best effort: training works without the database, attendance resolves any gaps when it starts
+        try (PooledConnection conn = ConnectionPool.shared().borrow()) {
+            int missing = registry.resolveStudentIds(conn);
+            if (missing > 0) System.out.println(" " + missing + " trained people have no students row yet");
+        } catch (SQLException e) {
+            System.out.println(" Database not reachable, student ids not saved: " + e.getMessage());
+        }
 
-        // Save the trained model
-        faceRecognizer.save("trained_model.xml");
-        System.out.println(" Model trained and saved successfully as 'trained_model.xml'");
+        try {
+            registry.save(LABELS_PATH);
+            return true;
+        } catch (IOException e) {
+            System.err.println(" Could not save labels to " + LABELS_PATH);
+            e.printStackTrace();
+            return false;
+        }
     }
 }
@@ -0,0 +1,60 @@
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_videoio.VideoCapture;
+
+// Webcam or video file, both read through VideoCapture
+public class VideoFrameSource implements FrameSource {
+
+    private final VideoCapture capture;
+    private final boolean live;
+    private volatile boolean finished;
+
+    private VideoFrameSource(VideoCapture capture, boolean live) {
+        this.capture = capture;
+        this.live = live;
+    }
+
+    public static VideoFrameSource webcam(int index) {
+        VideoCapture capture = new VideoCapture(index);
+        if (!capture.isOpened()) {
+            throw new IllegalStateException("Cannot open camera " + index);
+        }
+        return new VideoFrameSource(capture, true);
+    }
+
+    public static VideoFrameSource file(String path) {
+        VideoCapture capture = new VideoCapture(path);
+        if (!capture.isOpened()) {
+            throw new IllegalStateException("Cannot open video " + path);
+        }
+        return new VideoFrameSource(capture, false);
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        if (finished) return false;
+        if (capture.read(frame) && !frame.empty()) return true;
+
+        // A webcam can miss a frame now and then; a video that stops returning frames has ended
+        if (!live) finished = true;
+        return false;
+    }
+
+    // grab() advances the stream without decoding the frame into BGR pixels
+    @Override
+    public boolean skip(Mat scratch) {
+        if (finished) return false;
+        if (capture.grab()) return true;
+        if (!live) finished = true;
+        return false;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() {
+        capture.release();
+    }
+}
@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttendanceJournalTest {
+
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 24;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void acknowledgeMovesTheSyncedOffsetInTheHeader() throws Exception {
+        Path path = dir.resolve("attendance.journal");
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            for (int i = 0; i < 3; i++) journal.append(100 + i, 7, 1_000L + i);
+            awaitDurable(journal, 3);
+            journal.acknowledge(2);
+            assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, syncedOffset(path));
+            assertEquals(1, journal.pending());
+        }
+
+        // The next run starts after the acknowledged marks
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            assertEquals(1, journal.pending());
+            assertEquals(List.of("102/7/1002"), readAll(journal));
+        }
+    }
+
+    @Test
+    void fileIsTruncatedToItsHeaderOnceEverythingIsAcknowledged() throws Exception {
+        Path path = dir.resolve("attendance.journal");
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            journal.append(1, 7, 1_000L);
+            journal.append(2, 7, 1_001L);
+            awaitDurable(journal, 2);
+            journal.acknowledge(2);
+            assertEquals(0, journal.pending());
+            assertEquals(HEADER_BYTES, Files.size(path));
+            assertEquals(HEADER_BYTES, syncedOffset(path));
+
+            // and is appended to from the start again
+            journal.append(3, 7, 1_002L);
+            awaitDurable(journal, 1);
+            assertEquals(List.of("3/7/1002"), readAll(journal));
+        }
+    }
+
+    @Test
+    void tornTailIsCutOffOnOpen() throws Exception {
+        Path path = dir.resolve("attendance.journal");
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            journal.append(1, 7, 1_000L);
+            journal.append(2, 7, 1_001L);
+        }
+        // Half a mark, as a crash in the middle of a write leaves it
+        Files.write(path, new byte[RECORD_BYTES / 2], StandardOpenOption.APPEND);
+
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, Files.size(path));
+            assertEquals(List.of("1/7/1000", "2/7/1001"), readAll(journal));
+        }
+    }
+
+    @Test
+    void markWithABadChecksumAtTheEndIsCutOff() throws Exception {
+        Path path = dir.resolve("attendance.journal");
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            journal.append(1, 7, 1_000L);
+        }
+        // A whole record whose checksum does not match, e.g. a zero-filled block after a crash
+        ByteBuffer bad = ByteBuffer.allocate(RECORD_BYTES).putInt(2).putInt(7).putLong(1_001L).putInt(12345);
+        Files.write(path, bad.array(), StandardOpenOption.APPEND);
+
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            assertEquals(1, journal.pending());
+            assertEquals(List.of("1/7/1000"), readAll(journal));
+        }
+    }
+
+    @Test
+    void marksReadButNotAcknowledgedAreReadAgainAfterACrash() throws Exception {
+        Path path = dir.resolve("attendance.journal");
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            journal.append(1, 7, 1_000L);
+            journal.append(2, 7, 1_001L);
+            awaitDurable(journal, 2);
+            assertEquals(List.of("1/7/1000", "2/7/1001"), readAll(journal));
+            // the database committed them, but the process died before acknowledge()
+        }
+
+        try (AttendanceJournal journal = AttendanceJournal.open(path, 5)) {
+            assertEquals(2, journal.pending());
+            assertEquals(List.of("1/7/1000", "2/7/1001"), readAll(journal));
+        }
+    }
+
+    // Waits for the sync thread to write `count` marks to disk; read() only returns durable marks
+    static void awaitDurable(AttendanceJournal journal, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (journal.read(count, (s, c, t) -> { }) < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "marks were not written to disk in time");
+            Thread.sleep(5);
+        }
+    }
+
+    private static List<String> readAll(AttendanceJournal journal) throws Exception {
+        awaitDurable(journal, journal.pending());
+        List<String> marks = new ArrayList<>();
+        journal.read(Integer.MAX_VALUE / RECORD_BYTES, (studentId, courseId, millis) ->
+                marks.add(studentId + "/" + courseId + "/" + millis));
+        return marks;
+    }
+
+    private static long syncedOffset(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer synced = ByteBuffer.allocate(8);
+            channel.read(synced, 8);
+            return synced.getLong(0);
+        }
+    }
+}
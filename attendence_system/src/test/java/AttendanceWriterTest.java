@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// AttendanceWriter in journal mode against an embedded H2 database standing in for MySQL
+class AttendanceWriterTest {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private static final int COURSE = 7;
+
+    @TempDir
+    Path dir;
+
+    private String url;
+    private Connection admin; // keeps the in-memory database alive
+    private ConnectionPool pool;
+    private Path journalPath;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        url = "jdbc:h2:mem:attendance" + DATABASES.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        admin = DriverManager.getConnection(url, "", "");
+        execute("CREATE TABLE attendance_log (id INT AUTO_INCREMENT PRIMARY KEY, "
+                + "student_id INT, course_id INT, timestamp TIMESTAMP)");
+        pool = new ConnectionPool(url, "", "", 2);
+        journalPath = dir.resolve("attendance.journal");
+    }
+
+    @AfterEach
+    void dropDatabase() throws SQLException {
+        pool.close();
+        execute("SHUTDOWN");
+        admin.close();
+    }
+
+    @Test
+    void marksTakenDuringAnOutageAreWrittenOnceTheDatabaseIsBack() throws Exception {
+        AttendanceWriter writer = new AttendanceWriter(pool, 50, AttendanceJournal.open(journalPath, 5));
+        execute("ALTER TABLE attendance_log RENAME TO attendance_log_down");
+
+        for (int student = 0; student < 200; student++) writer.mark(student, COURSE);
+        Thread.sleep(300);
+        assertEquals(0, writer.written());
+        assertEquals(200, writer.queued());
+
+        execute("ALTER TABLE attendance_log_down RENAME TO attendance_log");
+        assertTrue(writer.awaitWritten(10_000), "marks were not written after the database came back");
+        assertEquals(200, rows());
+        assertEquals(0, writer.close(1_000));
+        assertEquals(16, Files.size(journalPath));
+    }
+
+    @Test
+    void marksLeftByAnEarlierRunAreWrittenFirst() throws Exception {
+        try (AttendanceJournal journal = AttendanceJournal.open(journalPath, 5)) {
+            for (int student = 0; student < 20; student++) journal.append(student, COURSE, 1_000L);
+        }
+
+        AttendanceWriter writer = new AttendanceWriter(pool, 50, AttendanceJournal.open(journalPath, 5));
+        assertTrue(writer.awaitWritten(10_000));
+        assertEquals(20, rows());
+        writer.close(1_000);
+    }
+
+    @Test
+    void replayAfterACrashBetweenCommitAndAcknowledgeWritesEachMarkOnce() throws Exception {
+        // The previous run committed the first 10 marks but died before acknowledging them
+        try (AttendanceJournal journal = AttendanceJournal.open(journalPath, 5)) {
+            for (int student = 0; student < 30; student++) journal.append(student, COURSE, 1_000L);
+        }
+        for (int student = 0; student < 10; student++) {
+            execute("INSERT INTO attendance_log (student_id, course_id, timestamp) VALUES ("
+                    + student + ", " + COURSE + ", CURRENT_TIMESTAMP)");
+        }
+
+        AttendanceWriter writer = new AttendanceWriter(pool, 50, AttendanceJournal.open(journalPath, 5));
+        assertTrue(writer.awaitWritten(10_000));
+        assertEquals(30, rows());
+        assertEquals(30, distinctStudents());
+        assertEquals(0, writer.close(1_000));
+        assertEquals(16, Files.size(journalPath));
+    }
+
+    @Test
+    void tornTailIsNotWritten() throws Exception {
+        try (AttendanceJournal journal = AttendanceJournal.open(journalPath, 5)) {
+            for (int student = 0; student < 5; student++) journal.append(student, COURSE, 1_000L);
+        }
+        // A mark of student 99 cut short by a crash: its checksum never made it to disk
+        ByteBuffer torn = ByteBuffer.allocate(20).putInt(99).putInt(COURSE).putLong(1_000L);
+        Files.write(journalPath, torn.array(), StandardOpenOption.APPEND);
+
+        AttendanceWriter writer = new AttendanceWriter(pool, 50, AttendanceJournal.open(journalPath, 5));
+        assertTrue(writer.awaitWritten(10_000));
+        assertEquals(5, rows());
+        assertEquals(0, count("SELECT COUNT(*) FROM attendance_log WHERE student_id = 99"));
+        writer.close(1_000);
+    }
+
+    @Test
+    void marksNotWrittenBeforeCloseStayInTheJournal() throws Exception {
+        execute("ALTER TABLE attendance_log RENAME TO attendance_log_down");
+        AttendanceWriter writer = new AttendanceWriter(pool, 50, AttendanceJournal.open(journalPath, 5));
+        for (int student = 0; student < 10; student++) writer.mark(student, COURSE);
+        assertEquals(10, writer.close(200));
+
+        execute("ALTER TABLE attendance_log_down RENAME TO attendance_log");
+        AttendanceWriter next = new AttendanceWriter(pool, 50, AttendanceJournal.open(journalPath, 5));
+        assertTrue(next.awaitWritten(10_000));
+        assertEquals(10, rows());
+        next.close(1_000);
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = admin.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private int rows() throws SQLException {
+        return count("SELECT COUNT(*) FROM attendance_log");
+    }
+
+    private int distinctStudents() throws SQLException {
+        return count("SELECT COUNT(DISTINCT student_id) FROM attendance_log");
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Statement statement = admin.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}